@@ -2,10 +2,17 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.OutputStreamWriter;
 import java.io.StringWriter;
 import java.io.PrintWriter;
-import java.io.PrintStream;
 
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
@@ -23,10 +30,16 @@ public class mapdump {
     private static class MapDumpOptions extends Options {
 
 	String input = null;
-	PrintStream output = System.out;
+	PrintWriter output = null;
+	String[] inputs = null;		// batch mode
+	int[] formats = { Map.FORMAT_CSV };
+	File dir = new File(".");
 	String[] refs = new String[0];
 	String image = null;
+	String diff = null;
+	boolean unmapped = false;
 	int format = Map.FORMAT_CSV;
+	ParseCache cache = ParseCache.getDefault();
 
 	public MapDumpOptions() {
 	    Option r = OptionBuilder.withArgName("maps.kp [...]").hasArg().hasOptionalArgs()
@@ -38,13 +51,48 @@ public class mapdump {
 		    "Generate min/max columns and image size based on this image")
 		.create('i');
 
+	    Option D = OptionBuilder.withArgName("other.bin").hasArg()
+		.withDescription(
+		    "Report maps that differ between image.bin and this image (requires -i <image.bin>)")
+		.create('D');
+
+	    Option c = OptionBuilder.withArgName("dir").hasArg()
+		.withDescription(
+		    "Cache parsed mappacks in this directory (default ~/.mapdump/cache)")
+		.create('c');
+	    Option s = OptionBuilder.withArgName("MB").hasArg()
+		.withDescription(
+		    "Limit the cache directory to this size (default " +
+		    ParseCache.DEFAULT_SIZE + ")")
+		.create('s');
+
+	    Option f = OptionBuilder.withArgName("fmt,...").hasArg()
+		.withDescription(
+		    "Batch output formats: csv, xdf, oldxdf, dump (default csv)")
+		.create('f');
+	    Option O = OptionBuilder.withArgName("dir").hasArg()
+		.withDescription("Write batch output into this directory")
+		.create('O');
+
+	    Option u = new Option("u", "With -D, also report changed bytes outside of any map");
+	    Option b = new Option("b",
+		"Batch: dump every maps.kp given, each with the image.bin beside it");
+	    Option n = new Option("n", "Don't cache parsed mappacks");
 	    Option d = new Option("d", "Generate raw dump");
 	    Option o = new Option("o", "Generate old xdf (requires -i <image.bin>)");
 	    Option x = new Option("x", "Generate xml xdf (requires -i <image.bin>)");
 
 	    this.addOption(r);
 	    this.addOption(i);
+	    this.addOption(D);
+	    this.addOption(c);
+	    this.addOption(s);
+	    this.addOption(f);
+	    this.addOption(O);
 
+	    this.addOption(u);
+	    this.addOption(b);
+	    this.addOption(n);
 	    this.addOption(d);
 	    this.addOption(o);
 	    this.addOption(x);
@@ -62,6 +110,62 @@ public class mapdump {
 		this.image = line.getOptionValue("i");
 	    }
 
+	    if (line.hasOption('c') || line.hasOption('s')) {
+		File dir = this.cache!=null?this.cache.getDir():null;
+		long max = ParseCache.DEFAULT_SIZE<<20;
+		if (line.hasOption('c'))
+		    dir = new File(line.getOptionValue("c"));
+		if (line.hasOption('s')) {
+		    try {
+			max = Long.valueOf(line.getOptionValue("s"))<<20;
+		    } catch (NumberFormatException e) {
+			throw new ParseException("-s takes a size in MB");
+		    }
+		} else if (this.cache!=null) {
+		    max = this.cache.getMaxSize();
+		}
+		if (dir==null)
+		    throw new ParseException("-s needs a cache directory (-c)");
+		this.cache = new ParseCache(dir, max);
+	    }
+
+	    if (line.hasOption('n')) {
+		this.cache = null;
+	    }
+
+	    if (line.hasOption('D')) {
+		if (this.image == null)
+		    throw new ParseException("-D requires -i <image.bin> to diff against");
+		this.diff = line.getOptionValue("D");
+	    }
+
+	    if (line.hasOption('u')) {
+		if (this.diff == null)
+		    throw new ParseException("-u only goes with -D");
+		this.unmapped = true;
+	    }
+
+	    if (line.hasOption('b')) {
+		if (line.hasOption('i') || line.hasOption('d') ||
+		    line.hasOption('o') || line.hasOption('x'))
+		    throw new ParseException("Use -f rather than -i, -d, -o, -x with -b");
+		if (line.hasOption('f')) {
+		    String[] a = line.getOptionValue("f").split(",");
+		    this.formats = new int[a.length];
+		    for (int i=0; i<a.length; i++)
+			this.formats[i] = format(a[i]);
+		}
+		if (line.hasOption('O'))
+		    this.dir = new File(line.getOptionValue("O"));
+		this.inputs = line.getArgs();
+		if (this.inputs.length<=0)
+		    throw new ParseException("You must specify an input filename");
+		return;
+	    }
+
+	    if (line.hasOption('f') || line.hasOption('O'))
+		throw new ParseException("-f and -O only go with -b");
+
 	    if (line.hasOption('d')) {
 		this.format = Map.FORMAT_DUMP;
 	    }
@@ -95,7 +199,8 @@ public class mapdump {
 
 	    if (left.length>1) {
 		try {
-		    this.output = new PrintStream(left[1]);
+		    this.output = new PrintWriter(new BufferedWriter(
+			new FileWriter(left[1])));
 		} catch (Exception e) {
 		    throw new ParseException("Can't open '" + left[1] + "' for writing:\n  "
 			+ e.getMessage());
@@ -105,6 +210,16 @@ public class mapdump {
 	    if (left.length>2) {
 		throw new ParseException("Too many arguments");
 	    }
+
+	    if (this.output == null)
+		this.output = new PrintWriter(new BufferedWriter(
+		    new OutputStreamWriter(System.out)));
+	}
+
+	private static int format(String name) throws ParseException {
+	    for (int i=0; i<FORMAT_NAMES.length; i++)
+		if (FORMAT_NAMES[i].equals(name)) return i;
+	    throw new ParseException("Unknown format '" + name + "'");
 	}
 
 	public String Usage() {
@@ -113,11 +228,16 @@ public class mapdump {
 	    formatter.printOptions(new PrintWriter(sw), 80, this, 1, 3);
 	    return 
 		  "Usage: mapdump [options] maps.kp [outputfile]\n"
+		+ "       mapdump -b [options] maps.kp ...\n"
 		+ "Options:\n"
 		+ sw.getBuffer().toString();
 	}
     }
 
+    // indexed by Map.FORMAT_*
+    private static final String[] FORMAT_NAMES = { "dump", "csv", "oldxdf", "xdf" };
+    private static final String[] FORMAT_EXTS = { ".txt", ".csv", "-old.xdf", ".xdf" };
+
     public static void main(String[] args) throws Exception
     {
 	MapDumpOptions opts = new MapDumpOptions();
@@ -130,60 +250,183 @@ public class mapdump {
 	    return;
 	}
 
-	Parser mp = new Parser(opts.input);
+	if (opts.inputs != null) {
+	    batch(opts);
+	    return;
+	}
+
+	Parser mp = parse(opts.input, opts.cache);
 	ArrayList<Parser> refs = new ArrayList<Parser>();
 	ByteBuffer imagebuf=null;
-	String refsHeader="";
 	for(String s: opts.refs) {
-	    refs.add(new Parser(s));
-	    refsHeader+=",\"" + s + "\"";
+	    refs.add(parse(s, opts.cache));
 	}
 	if(opts.image!=null) {
 	    MMapFile mmap = new MMapFile(opts.image, ByteOrder.LITTLE_ENDIAN);
 	    imagebuf = mmap.getByteBuffer();
 	}
-	switch(opts.format) {
+	try {
+	    if (opts.diff != null) {
+		ByteBuffer other = new MMapFile(opts.diff,
+		    ByteOrder.LITTLE_ENDIAN).getByteBuffer();
+		ImageDiff d = new ImageDiff(imagebuf, other);
+		final long t0 = System.nanoTime();
+		for (Project p: mp.projects)
+		    if (p.hasMaps()) d.write(opts.output, p, opts.unmapped);
+		// not in the report, so two runs give the same file
+		System.err.println(String.format("diffed in %.1f ms",
+		    (System.nanoTime()-t0)/1e6));
+	    } else {
+		dump(mp, refs, opts.refs, imagebuf, opts.format, opts.output);
+	    }
+	} finally {
+	    opts.output.close();
+	}
+	if (opts.output.checkError())
+	    throw new Exception("error writing output");
+    }
+
+    private static Callable<Parser> parser(final String fname,
+	final ParseCache cache)
+    {
+	return new Callable<Parser>() {
+	    public Parser call() throws Exception {
+		return parse(fname, cache);
+	    }
+	};
+    }
+
+    private static Callable<String> dumper(final Parser mp,
+	final ArrayList<Parser> refs, final String[] refNames,
+	final File image, final ByteBuffer imagebuf, final int format,
+	final File out)
+    {
+	return new Callable<String>() {
+	    public String call() throws Exception {
+		long t0 = System.currentTimeMillis();
+		if (imagebuf == null && (format == Map.FORMAT_OLD_XDF ||
+		    format == Map.FORMAT_XDF))
+		    throw new Exception("needs " + image);
+		PrintWriter w = new PrintWriter(new BufferedWriter(
+		    new FileWriter(out)));
+		try {
+		    dump(mp, refs, refNames, imagebuf, format, w);
+		} finally {
+		    w.close();
+		}
+		if (w.checkError())
+		    throw new Exception("error writing output");
+		return String.format("%s: %d ms", out.getPath(),
+		    System.currentTimeMillis()-t0);
+	    }
+	};
+    }
+
+    /*
+     * Every pack and reference is parsed once, then each pack x format
+     * is written to its own file in parallel.
+     */
+    private static void batch(MapDumpOptions opts) throws Exception
+    {
+	long t0 = System.currentTimeMillis();
+	ArrayList<Callable<Parser>> parsers = new ArrayList<Callable<Parser>>();
+	for(String s: opts.refs) parsers.add(parser(s, opts.cache));
+	for(String s: opts.inputs) parsers.add(parser(s, opts.cache));
+	List<Parser> parsed = WorkerPool.run(parsers);
+	ArrayList<Parser> refs =
+	    new ArrayList<Parser>(parsed.subList(0, opts.refs.length));
+	System.out.println(String.format("parsed %d mappacks: %d ms",
+	    parsed.size(), System.currentTimeMillis()-t0));
+
+	if (!opts.dir.isDirectory() && !opts.dir.mkdirs())
+	    throw new Exception(opts.dir + ": can't create directory");
+
+	ArrayList<Callable<String>> tasks = new ArrayList<Callable<String>>();
+	for(int i=0; i<opts.inputs.length; i++) {
+	    String stem = Files.stem(opts.inputs[i]);
+	    File bin = new File(new File(opts.inputs[i]).getParentFile(),
+		stem + ".bin");
+	    ByteBuffer imagebuf = bin.exists()?new MMapFile(bin.getPath(),
+		ByteOrder.LITTLE_ENDIAN).getByteBuffer():null;
+	    for(int format: opts.formats)
+		tasks.add(dumper(parsed.get(opts.refs.length+i), refs, opts.refs,
+		    bin, imagebuf, format, new File(opts.dir,
+			stem + FORMAT_EXTS[format])));
+	}
+
+	int failed = 0;
+	List<Future<String>> results = WorkerPool.invokeAll(tasks);
+	for(int i=0; i<results.size(); i++) {
+	    try {
+		System.out.println(results.get(i).get());
+	    } catch (ExecutionException e) {
+		System.err.println(opts.inputs[i/opts.formats.length] + " (" +
+		    FORMAT_NAMES[opts.formats[i%opts.formats.length]] + "): " +
+		    e.getCause().getMessage());
+		failed++;
+	    }
+	}
+	System.out.println(String.format("%d files: %d ms", tasks.size()-failed,
+	    System.currentTimeMillis()-t0));
+	if (failed>0)
+	    throw new Exception(failed + " of " + tasks.size() + " outputs failed");
+    }
+
+    private static Parser parse(String fname, ParseCache cache) throws Exception
+    {
+	return cache!=null?cache.parse(fname):new Parser(fname);
+    }
+
+    // writes each map as it goes, nothing is built up for the whole pack
+    private static void dump(Parser mp, ArrayList<Parser> refs,
+	String[] refNames, ByteBuffer imagebuf, int format, PrintWriter output)
+	throws Exception
+    {
+	switch(format) {
 	    case Map.FORMAT_CSV:
-		opts.output.print(Map.CSVHeader()+refsHeader);
-		opts.output.println();
+		String refsHeader="";
+		for(String s: refNames)
+		    refsHeader+=",\"" + s + "\"";
+		output.print(Map.CSVHeader()+refsHeader);
+		output.println();
 		break;
 	    case Map.FORMAT_OLD_XDF:
-		opts.output.print("XDF\n1.110000\n\n");
+		output.print("XDF\n1.110000\n\n");
 		break;
 	    case Map.FORMAT_XDF:
 		Date date = new Date();
-		opts.output.print("<!-- Written " + date.toString() + " -->\n");
-		opts.output.print("<XDFFORMAT version=\"1.50\">\n");
+		output.print("<!-- Written " + date.toString() + " -->\n");
+		output.print("<XDFFORMAT version=\"1.50\">\n");
 		break;
 	    default: break;
 	}
 	for(Project p: mp.projects) {
-	    opts.output.print(p.toString(opts.format, imagebuf));
+	    p.write(output, format, imagebuf);
 	    /*
 	    for(Folder f: p.folders) {
-		System.err.print(f.toString(opts.format));
+		System.err.print(f.toString(format));
 		System.err.println();
 	    }
 	    */
-	    if (p.maps==null) continue;
+	    if (!p.hasMaps()) continue;
 
-	    for(Map m: p.maps) {
-		opts.output.print(m.toString(opts.format, imagebuf));
-		if(opts.format == Map.FORMAT_CSV) {
+	    for(Map m: p.maps()) {
+		m.write(output, format, imagebuf);
+		if(format == Map.FORMAT_CSV) {
 		    for(Parser pa: refs) {
 			ArrayList<Map> matches = pa.find(m);
 			if(matches.size()>0) {
 			    Map r = matches.get(0);
-			    opts.output.print(",\"" + r.name + "\"");
+			    output.print(",\"" + r.name + "\"");
 			} else {
-			    opts.output.print(",\"\"");
+			    output.print(",\"\"");
 			}
 		    }
-		    opts.output.println();
+		    output.println();
 		}
 	    }
 	}
-	if (opts.format==Map.FORMAT_XDF)
-	    opts.output.print("</XDFFORMAT>\n");
+	if (format==Map.FORMAT_XDF)
+	    output.print("</XDFFORMAT>\n");
     }
 }
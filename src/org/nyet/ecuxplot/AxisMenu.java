@@ -80,6 +80,13 @@ public class AxisMenu extends JMenu {
 	this.add(item, where);
     }
 
+    // derived channels this log column makes available, see Channels
+    private void addChannels(String id, SubActionListener listener,
+	ButtonGroup bg) {
+	for(String c : Channels.triggeredBy(id))
+	    this.add(c, listener, bg);
+    }
+
     private void add(String id, SubActionListener listener,
 	ButtonGroup bg) {
 
@@ -89,16 +96,7 @@ public class AxisMenu extends JMenu {
 	    this.add(item, 0);	// always add rpms first!
 	    this.add("RPM - raw", listener, bg, 1);
 
-	    this.add("Calc Velocity", listener, bg);
-	    this.add("Calc Acceleration (RPM/s)", listener, bg);
-	    this.add("Calc Acceleration - raw (RPM/s)", listener, bg);
-	    this.add("Calc Acceleration (m/s^2)", listener, bg);
-	    this.add("Calc Acceleration (g)", listener, bg);
-	    this.add("Calc WHP", listener, bg);
-	    this.add("Calc WTQ", listener, bg);
-	    this.add("Calc HP", listener, bg);
-	    this.add("Calc TQ", listener, bg);
-	    this.add("Calc Drag", listener, bg);
+	    addChannels(id, listener, bg);
 
 	    addToSubmenu("Calc", new JSeparator());
 
@@ -108,74 +106,24 @@ public class AxisMenu extends JMenu {
 	} else if(id.matches(".*(MAF|MassAir|AirMass).*")) {
 	    addToSubmenu("MAF", item);
 	    if(id.matches("MassAirFlow")) {
-		this.add("Calc Load", listener, bg);
-		this.add("Calc Load Corrected", listener, bg);
-		this.add("Calc MAF", listener, bg);
-		this.add("Calc MassAirFlow df/dt", listener, bg);
-		this.add("Calc Turbo Flow", listener, bg);
-		this.add("Calc Turbo Flow (lb/min)", listener, bg);
+		addChannels(id, listener, bg);
 		addToSubmenu("Calc", new JSeparator());
 	    }
 	} else if(id.matches(".*(AFR|AdaptationPartial|Injection|Fuel|Lambda|TFT|IDC|Injector).*")) {
 	    addToSubmenu("Fuel", item);
-	    if(id.matches("TargetAFRDriverRequest")) {
-		this.add("TargetAFRDriverRequest (AFR)", listener, bg);
-	    }
-	    if(id.matches("AirFuelRatioDesired")) {
-		this.add("AirFuelRatioDesired (AFR)", listener, bg);
-	    }
-	    if(id.matches("AirFuelRatioCurrent")) {
-		this.add("AirFuelRatioCurrent (AFR)", listener, bg);
-	    }
-	    if(id.matches("FuelInjectorOnTime")) {	// ti
-		this.add("FuelInjectorDutyCycle", listener, bg);
-	    }
-	    if(id.matches("EffFuelInjectonTime")) {	// te
-		this.add("EffFuelInjectorDutyCycle", listener, bg);
-		this.add("Calc Fuel Mass", listener, bg);
-		this.add("Calc AFR", listener, bg);
-		this.add("Calc lambda", listener, bg);
-		this.add("Calc lambda error", listener, bg);
-		// addToSubmenu("Calc", new JSeparator());
-	    }
-	    if(id.matches("EffFuelInjectonTimeBank2")) {	// te
-		this.add("EffFuelInjectorDutyCycleBank2", listener, bg);
-	    }
+	    addChannels(id, listener, bg);
 	} else if(id.matches("^Zeitronix.*")) {
 	    /* do zeitronix before boost so we get the conversions we want */
-	    if(id.matches("^Zeitronix Boost")) {
-		this.add("Zeitronix Boost (PSI)", listener, bg);
-		this.add("Calc Boost Spool Rate Zeit (RPM)", listener, bg);
-	    }
-	    if(id.matches("^Zeitronix AFR")) {
-		this.add("Zeitronix AFR (lambda)", listener, bg);
-	    }
-	    if(id.matches("^Zeitronix Lambda")) {
-		this.add("Zeitronix Lambda (AFR)", listener, bg);
-	    }
+	    addChannels(id, listener, bg);
 	    addToSubmenu("Zeitronix", item);
 	} else if(id.matches(".*([Bb]oost|Wastegate|Charge|WGDC|PSI|Baro).*")) {
 	    addToSubmenu("Boost", item);
-	    if(id.matches("BoostPressureDesired")) {
-		this.add("BoostPressureDesired (PSI)", listener, bg);
-		this.add("Calc BoostDesired PR", listener, bg);
-	    }
-	    if(id.matches("BoostPressureActual")) {
-		this.add("BoostPressureActual (PSI)", listener, bg);
-		this.add("Calc BoostActual PR", listener, bg);
-		this.add("Calc Boost Spool Rate (RPM)", listener, bg);
-		this.add("Calc Boost Spool Rate (time)", listener, bg);
-		this.add("Calc LDR error", listener, bg);
-		this.add("Calc LDR de/dt", listener, bg);
-		this.add("Calc LDR I e dt", listener, bg);
-		this.add("Calc LDR PID", listener, bg);
+	    addChannels(id, listener, bg);
+	    if(id.matches("BoostPressureActual"))
 		addToSubmenu("Calc", new JSeparator());
-	    }
 	} else if(id.matches(".*(Eta|Avg|Adapted)?(Ign|Timing).*")) {
 	    addToSubmenu("Ignition", item);
-	    if(id.matches("IgnitionTimingAngleOverall")) {
-		this.add("IgnitionTimingAngleOverallDesired", listener, bg);
-	    }
+	    addChannels(id, listener, bg);
 	} else if(id.matches("(Cat|MainCat).*")) {
 	    addToSubmenu("Cats", item);
 	} else if(id.matches(".*EGT.*")) {
@@ -192,19 +140,13 @@ public class AxisMenu extends JMenu {
 	    addToSubmenu("Throttle", item);
 	} else if(id.matches(".*(Load|Torque).*")) {
 	    addToSubmenu("Load", item);
-	    if(id.matches("EngineLoadDesired")) {
-		this.add("Calc SimBoostPressureDesired", listener, bg);
-	    }
-	    if(id.matches("EngineLoadCorrectedSpecified")) {
-		this.add("Calc LoadSpecified correction", listener, bg);
-	    }
+	    addChannels(id, listener, bg);
 	} else if(id.matches("Engine torque")) {
 	    this.add(item);
-	    this.add("Engine torque (ft-lb)", listener, bg);
-	    this.add("Engine HP", listener, bg);
+	    addChannels(id, listener, bg);
 	} else if(id.matches("IntakeAirTemperature")) {
 	    addToSubmenu("Temperature", item);
-	    this.add("IntakeAirTemperature (C)", listener, bg);
+	    addChannels(id, listener, bg);
 	} else if(id.matches(".*Temperature.*")) {
 	    addToSubmenu("Temperature", item);
 	} else if(id.matches(".*VV.*")) {	// EvoScan
@@ -0,0 +1,64 @@
+package org.nyet.ecuxplot;
+
+import org.nyet.util.DoubleArray;
+
+/*
+ * A derived column.  Declares what it is computed from and which
+ * parameters it uses, so Channels can work out dependencies and cache
+ * keys without evaluating anything.
+ */
+public abstract class Channel {
+    // parameters a channel depends on
+    public static final int CONSTANTS	= 1<<0;
+    public static final int FUELING	= 1<<1;
+    public static final int SAE		= 1<<2;
+    public static final int PID		= 1<<3;
+    public static final int MAW		= 1<<4;	// hp/tq moving average window
+    public static final int ZEITMAW	= 1<<5;
+    public static final int RATE	= 1<<6;	// samples per second
+
+    public static class Ref {
+	public final String id;
+	public final boolean raw;	// only the log column, never a channel
+	public final boolean optional;	// if missing, pass null
+
+	private Ref(String id, boolean raw, boolean optional) {
+	    this.id = id;
+	    this.raw = raw;
+	    this.optional = optional;
+	}
+	public String toString() { return (raw?"raw:":"") + id; }
+    }
+
+    public static Ref raw(String id) { return new Ref(id, true, false); }
+    public static Ref calc(String id) { return new Ref(id, false, false); }
+    public static Ref optional(Ref r) { return new Ref(r.id, r.raw, true); }
+
+    public final String id;
+    public final String units;
+    public final String trigger;	// log column that adds us to the axis menu
+    public final int params;
+    public final Ref [] inputs;
+
+    // filled in by Channels
+    int deps;		// params, including those of our inputs
+    int level;		// 0 if nothing we need is a channel
+
+    public Channel(String id, String units, String trigger, int params,
+	Ref... inputs) {
+	this.id = id;
+	this.units = units;
+	this.trigger = trigger;
+	this.params = params;
+	this.inputs = inputs;
+    }
+
+    public String units(ECUxDataset d) { return this.units; }
+
+    public int deps() { return this.deps; }
+
+    /* in[] matches inputs[].  Return null to fall back to the log column. */
+    public abstract DoubleArray f(ECUxDataset d, DoubleArray [] in);
+
+    public String toString() { return this.id; }
+}
@@ -0,0 +1,595 @@
+package org.nyet.ecuxplot;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.nyet.util.DoubleArray;
+import org.nyet.util.DoubleExpr;
+
+import static org.nyet.ecuxplot.Channel.*;
+
+/*
+ * Every derived channel ECUxDataset knows about.  Order matters, it is
+ * the order channels show up in the axis menus.
+ */
+public final class Channels {
+    private static final double hp_per_watt = 0.00134102209;
+    private static final double mbar_per_psi = 68.9475729;
+
+    private static final LinkedHashMap<String, Channel> channels =
+	new LinkedHashMap<String, Channel>();
+    private static final HashMap<String, List<String>> triggers =
+	new HashMap<String, List<String>>();
+
+    private Channels() {}
+
+    private static void add(Channel c) {
+	channels.put(c.id, c);
+	if(c.trigger==null) return;
+	List<String> l = triggers.get(c.trigger);
+	if(l==null) {
+	    l = new ArrayList<String>();
+	    triggers.put(c.trigger, l);
+	}
+	l.add(c.id);
+    }
+
+    public static Channel get(String id) { return channels.get(id); }
+
+    public static Collection<Channel> all() {
+	return Collections.unmodifiableCollection(channels.values());
+    }
+
+    /* channels to add to the axis menu when a log has this column */
+    public static List<String> triggeredBy(String header) {
+	final List<String> l = triggers.get(header);
+	if(l==null) return Collections.emptyList();
+	return Collections.unmodifiableList(l);
+    }
+
+    /*
+     * Everything needed to compute ids, grouped by level.  Channels in
+     * the same level don't depend on each other.
+     */
+    public static List<List<Channel>> plan(Collection<?> ids) {
+	final HashSet<Channel> need = new HashSet<Channel>();
+	for(Object id : ids) {
+	    final Channel c = channels.get(id.toString());
+	    if(c!=null) closure(c, need);
+	}
+	final List<List<Channel>> out = new ArrayList<List<Channel>>();
+	for(Channel c : channels.values()) {	// keep registry order
+	    if(!need.contains(c)) continue;
+	    while(out.size()<=c.level) out.add(new ArrayList<Channel>());
+	    out.get(c.level).add(c);
+	}
+	return out;
+    }
+
+    private static void closure(Channel c, HashSet<Channel> need) {
+	if(!need.add(c)) return;
+	for(Ref r : c.inputs) {
+	    if(r.raw) continue;
+	    final Channel in = channels.get(r.id);
+	    if(in!=null) closure(in, need);
+	}
+    }
+
+    // fill in deps and level, once
+    private static void resolve(Channel c, HashSet<Channel> visiting,
+	HashSet<Channel> done) {
+	if(done.contains(c)) return;
+	if(!visiting.add(c))
+	    throw new IllegalStateException("channel cycle at " + c.id);
+	int deps = c.params, level = 0;
+	for(Ref r : c.inputs) {
+	    if(r.raw) continue;
+	    final Channel in = channels.get(r.id);
+	    if(in==null) continue;
+	    resolve(in, visiting, done);
+	    deps |= in.deps;
+	    level = Math.max(level, in.level+1);
+	}
+	c.deps = deps;
+	c.level = level;
+	visiting.remove(c);
+	done.add(c);
+    }
+
+    /*
+     * The helpers below return unevaluated expressions, so callers can
+     * keep chaining and pay for a single pass at eval().
+     */
+    private static DoubleExpr toPSI(DoubleArray abs, DoubleArray ambient) {
+	if(ambient==null) return abs.expr().add(-1013).div(mbar_per_psi);
+	return abs.expr().sub(ambient).div(mbar_per_psi);
+    }
+
+    private static DoubleExpr toCelcius(DoubleArray f) {
+	return f.expr().add(-32).mult(5.0/9.0);
+    }
+
+    private static DoubleExpr toFahrenheit(DoubleArray c) {
+	return c.expr().mult(9.0/5.0).add(32);
+    }
+
+    private static DoubleExpr drag(Env env, DoubleArray v) {
+	final double rho=1.293;	// kg/m^3 air, standard density
+
+	DoubleExpr windDrag = v.expr().pow(3).mult(0.5 * rho * env.c.Cd() *
+	    env.c.FA());
+
+	DoubleExpr rollingDrag = v.expr().mult(env.c.rolling_drag() *
+	    env.c.mass() * 9.80665);
+
+	return windDrag.add(rollingDrag);
+    }
+
+    // injector on time in ms to duty cycle
+    private static DoubleExpr duty(DoubleArray ms, DoubleArray rpm) {
+	DoubleExpr a = ms.expr().div(60*1000);
+	DoubleExpr b = rpm.expr().div(2); // 1/2 cycle
+	return a.mult(b).mult(100); // convert to %
+    }
+
+    private static DoubleExpr toAFR(DoubleArray lambda) {
+	return lambda.expr().mult(14.7);
+    }
+
+    private static String saeUnits(ECUxDataset d, String l) {
+	if(d.getEnv().sae.enabled()) l += " (SAE)";
+	return l;
+    }
+
+    static {
+	add(new Channel("Sample", "#", null, 0) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		double[] idx = new double[d.length()];
+		for (int i=0;i<d.length();i++)
+		    idx[i]=i;
+		return new DoubleArray(idx);
+	    }
+	});
+	add(new Channel("TIME", "s", null, 0, raw("TIME")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return in[0].div(d.timeTicksPerSec());
+	    }
+	});
+	// smooth sampling quantum noise/jitter, RPM is an integer!
+	add(new Channel("RPM", "RPM", null, RATE, raw("RPM")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		if (d.samples_per_sec<=10) return null;
+		return in[0].smooth();
+	    }
+	});
+	add(new Channel("RPM - raw", "RPM", null, 0, raw("RPM")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return in[0];
+	    }
+	});
+
+/*****************************************************************************/
+	add(new Channel("Calc Velocity", "m/s", "RPM", CONSTANTS, calc("RPM")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		final double mph_per_mps = 2.23693629;
+		return in[0].expr().div(d.getEnv().c.rpm_per_mph()).
+		    div(mph_per_mps).eval();
+	    }
+	});
+	add(new Channel("Calc Acceleration (RPM/s)", "RPM/s", "RPM", MAW,
+		calc("RPM"), calc("TIME")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return in[0].derivative(in[1], d.MAW()).max(0);
+	    }
+	});
+	add(new Channel("Calc Acceleration - raw (RPM/s)", "RPM/s", "RPM", 0,
+		calc("RPM - raw"), calc("TIME")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return in[0].derivative(in[1]);
+	    }
+	});
+	add(new Channel("Calc Acceleration (m/s^2)", "m/s^2", "RPM", MAW,
+		calc("Calc Velocity"), calc("TIME")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return in[0].derivative(in[1], d.MAW()).max(0);
+	    }
+	});
+	add(new Channel("Calc Acceleration (g)", "g", "RPM", 0,
+		calc("Calc Acceleration (m/s^2)")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return in[0].div(9.80665);
+	    }
+	});
+	add(new Channel("Calc WHP", "HP", "RPM", CONSTANTS|SAE|MAW,
+		calc("Calc Acceleration (m/s^2)"), calc("Calc Velocity")) {
+	    public String units(ECUxDataset d) { return saeUnits(d, "HP"); }
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		final Env env = d.getEnv();
+		DoubleArray a = in[0], v = in[1];
+		DoubleExpr whp = a.expr().mult(v).mult(env.c.mass()).
+		    add(drag(env, v));	// in watts
+
+		DoubleExpr value = whp.mult(hp_per_watt);
+		if(env.sae.enabled())
+		    value = value.mult(env.sae.correction());
+		return value.eval().movingAverage(d.MAW());
+	    }
+	});
+	add(new Channel("Calc WTQ", "ft-lb", "RPM", 0,
+		calc("Calc WHP"), calc("RPM")) {
+	    public String units(ECUxDataset d) { return saeUnits(d, "ft-lb"); }
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return in[0].expr().mult(5252).div(in[1]).eval();
+	    }
+	});
+	add(new Channel("Calc HP", "HP", "RPM", CONSTANTS, calc("Calc WHP")) {
+	    public String units(ECUxDataset d) { return saeUnits(d, "HP"); }
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		final Constants c = d.getEnv().c;
+		return in[0].expr().div((1-c.driveline_loss())).
+		    add(c.static_loss()).eval();
+	    }
+	});
+	add(new Channel("Calc TQ", "ft-lb", "RPM", 0,
+		calc("Calc HP"), calc("RPM")) {
+	    public String units(ECUxDataset d) { return saeUnits(d, "ft-lb"); }
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return in[0].expr().mult(5252).div(in[1]).eval();
+	    }
+	});
+	add(new Channel("Calc Drag", "HP", "RPM", CONSTANTS,
+		calc("Calc Velocity")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return drag(d.getEnv(), in[0]).mult(hp_per_watt).eval();
+	    }
+	});
+
+/*****************************************************************************/
+	add(new Channel("Calc Load", "%", "MassAirFlow", 0,
+		raw("MassAirFlow"), raw("RPM")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		// g/sec to kg/hr
+		DoubleExpr a = in[0].expr().mult(3.6);
+		DoubleArray b = in[1].smooth();
+
+		// KUMSRL
+		return a.div(b).div(.001072).eval();
+	    }
+	});
+	add(new Channel("Calc Load Corrected", "%", "MassAirFlow", 0,
+		calc("Calc MAF"), calc("RPM")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		// g/sec to kg/hr, KUMSRL
+		return in[0].expr().mult(3.6).div(in[1]).div(.001072).eval();
+	    }
+	});
+	add(new Channel("Calc MAF", "g/sec", "MassAirFlow", FUELING,
+		raw("MassAirFlow")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		final Fueling f = d.getEnv().f;
+		// mass in g/sec
+		return in[0].expr().mult(f.MAF_correction()).
+		    add(f.MAF_offset()).eval();
+	    }
+	});
+	add(new Channel("Calc MassAirFlow df/dt", "g/sec^s", "MassAirFlow", 0,
+		raw("MassAirFlow"), calc("TIME")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return in[0].derivative(in[1]).max(0);
+	    }
+	});
+	add(new Channel("Calc Turbo Flow", "m^3/sec", "MassAirFlow", FUELING,
+		calc("Calc MAF")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return in[0].div(1225*d.getEnv().f.turbos());
+	    }
+	});
+	add(new Channel("Calc Turbo Flow (lb/min)", "lb/min", "MassAirFlow",
+		FUELING, calc("Calc MAF")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return in[0].div(7.55*d.getEnv().f.turbos());
+	    }
+	});
+
+/*****************************************************************************/
+	add(new Channel("TargetAFRDriverRequest (AFR)", "AFR",
+		"TargetAFRDriverRequest", 0, raw("TargetAFRDriverRequest")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return toAFR(in[0]).eval();
+	    }
+	});
+	add(new Channel("AirFuelRatioDesired (AFR)", "AFR",
+		"AirFuelRatioDesired", 0, raw("AirFuelRatioDesired")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return toAFR(in[0]).eval();
+	    }
+	});
+	add(new Channel("AirFuelRatioCurrent (AFR)", "AFR",
+		"AirFuelRatioCurrent", 0, raw("AirFuelRatioCurrent")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return toAFR(in[0]).eval();
+	    }
+	});
+	add(new Channel("FuelInjectorDutyCycle", "%", "FuelInjectorOnTime", 0,
+		raw("FuelInjectorOnTime"), calc("RPM")) {	/* ti */
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return duty(in[0], in[1]).eval();
+	    }
+	});
+	// ME7L logs come in as EffFuelInjectonTime, see ParseHeaders()
+	add(new Channel("EffFuelInjectorDutyCycle", "%", "EffFuelInjectonTime", 0,
+		raw("EffFuelInjectionTime"), calc("RPM")) {	/* te */
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return duty(in[0], in[1]).eval();
+	    }
+	});
+	add(new Channel("Calc Fuel Mass", "g/sec", "EffFuelInjectonTime", FUELING,
+		calc("EffFuelInjectorDutyCycle"),
+		optional(calc("EffFuelInjectorDutyCycleBank2"))) {	// based on te
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		final double gps_per_ccmin = 0.0114; // (grams/sec) per (cc/min)
+		final Fueling f = d.getEnv().f;
+		final double gps = f.injector()*gps_per_ccmin;
+		final double cylinders = f.cylinders();
+		DoubleExpr duty = in[0].expr();
+		/* average two duties for overall mass */
+		if (in[1]!=null) duty = duty.add(in[1]).div(2);
+		return duty.mult(cylinders*gps/100).eval();
+	    }
+	});
+	add(new Channel("Calc AFR", "AFR", "EffFuelInjectonTime", 0,
+		calc("Calc MAF"), calc("Calc Fuel Mass")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return in[0].div(in[1]);
+	    }
+	});
+	add(new Channel("Calc lambda", "lambda", "EffFuelInjectonTime", 0,
+		calc("Calc AFR")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return in[0].div(14.7);
+	    }
+	});
+	add(new Channel("Calc lambda error", "%", "EffFuelInjectonTime", 0,
+		raw("AirFuelRatioDesired"), calc("Calc lambda")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return in[0].expr().div(in[1]).mult(-1).add(1).mult(100).
+		    max(-25).min(25).eval();
+	    }
+	});
+	add(new Channel("EffFuelInjectorDutyCycleBank2", "%",
+		"EffFuelInjectonTimeBank2", 0,
+		raw("EffFuelInjectionTimeBank2"), calc("RPM")) {	/* te */
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return duty(in[0], in[1]).eval();
+	    }
+	});
+
+/*****************************************************************************/
+	/* if log contains Engine torque */
+	add(new Channel("Engine torque (ft-lb)", "ft-lb", "Engine torque", 0,
+		calc("Engine torque")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return in[0].mult(0.737562149);	// nm to ft-lb
+	    }
+	});
+	add(new Channel("Engine HP", "HP", "Engine torque", 0,
+		calc("Engine torque (ft-lb)"), calc("RPM")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return in[0].expr().div(5252).mult(in[1]).eval();
+	    }
+	});
+
+/*****************************************************************************/
+	add(new Channel("IntakeAirTemperature", "\u00B0 F", null, 0,
+		raw("IntakeAirTemperature")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		if (!d.raw("IntakeAirTemperature").getUnits().matches(".*C$"))
+		    return null;
+		return toFahrenheit(in[0]).eval();
+	    }
+	});
+	add(new Channel("IntakeAirTemperature (C)", "\u00B0 C",
+		"IntakeAirTemperature", 0, raw("IntakeAirTemperature")) {
+	    public String units(ECUxDataset d) {
+		if (d.raw("IntakeAirTemperature").getUnits().matches(".*F$"))
+		    return this.units;
+		return d.raw("IntakeAirTemperature").getUnits();
+	    }
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		if (d.raw("IntakeAirTemperature").getUnits().matches(".*F$"))
+		    return toCelcius(in[0]).eval();
+		return in[0];
+	    }
+	});
+
+/*****************************************************************************/
+	/* do zeitronix before boost so we get the conversions we want */
+	add(new Channel("Zeitronix Boost (PSI)", "PSI", "Zeitronix Boost",
+		ZEITMAW, raw("Zeitronix Boost")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return in[0].movingAverage(d.getFilter().ZeitMAW());
+	    }
+	});
+	add(new Channel("Calc Boost Spool Rate Zeit (RPM)", "mBar/RPM",
+		"Zeitronix Boost", ZEITMAW,
+		calc("Zeitronix Boost"), calc("RPM")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		DoubleArray boost = in[0].smooth();
+		DoubleArray rpm =
+		    in[1].movingAverage(d.getFilter().ZeitMAW()).smooth();
+		return boost.derivative(rpm).max(0);
+	    }
+	});
+	add(new Channel("Zeitronix Boost", "mBar", null, 0,
+		calc("Zeitronix Boost (PSI)")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return in[0].expr().mult(mbar_per_psi).add(1013).eval();
+	    }
+	});
+	add(new Channel("Zeitronix AFR (lambda)", "lambda", "Zeitronix AFR", 0,
+		raw("Zeitronix AFR")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return in[0].div(14.7);
+	    }
+	});
+	add(new Channel("Zeitronix Lambda (AFR)", "AFR", "Zeitronix Lambda", 0,
+		raw("Zeitronix Lambda")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return toAFR(in[0]).eval();
+	    }
+	});
+
+/*****************************************************************************/
+	add(new Channel("BoostPressureDesired (PSI)", "PSI",
+		"BoostPressureDesired", 0, raw("BoostPressureDesired"),
+		optional(calc("BaroPressure"))) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return toPSI(in[0], in[1]).eval();
+	    }
+	});
+	add(new Channel("Calc BoostDesired PR", "PR", "BoostPressureDesired", 0,
+		raw("BoostPressureDesired"), optional(raw("BaroPressure"))) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		if(in[1]==null) return in[0].div(1013);
+		return in[0].div(in[1]);
+	    }
+	});
+	add(new Channel("BoostPressureActual (PSI)", "PSI",
+		"BoostPressureActual", 0, raw("BoostPressureActual"),
+		optional(calc("BaroPressure"))) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return toPSI(in[0], in[1]).eval();
+	    }
+	});
+	add(new Channel("Calc BoostActual PR", "PR", "BoostPressureActual", 0,
+		raw("BoostPressureActual"), optional(raw("BaroPressure"))) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		if(in[1]==null) return in[0].div(1013);
+		return in[0].div(in[1]);
+	    }
+	});
+	add(new Channel("Calc Boost Spool Rate (RPM)", "mBar/RPM",
+		"BoostPressureActual", 0,
+		raw("BoostPressureActual"), calc("RPM")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return in[0].smooth().derivative(in[1]).max(0);
+	    }
+	});
+	add(new Channel("Calc Boost Spool Rate (time)", "PSI/sec",
+		"BoostPressureActual", MAW,
+		calc("BoostPressureActual (PSI)"), calc("TIME")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return in[0].smooth().derivative(in[1], d.MAW()).max(0);
+	    }
+	});
+	add(new Channel("Calc LDR error", "100mBar", "BoostPressureActual", 0,
+		raw("BoostPressureDesired"), raw("BoostPressureActual")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return in[0].expr().sub(in[1]).div(100).eval();
+	    }
+	});
+	add(new Channel("Calc LDR de/dt", "100mBar", "BoostPressureActual",
+		MAW|PID, raw("BoostPressureDesired"), raw("BoostPressureActual"),
+		calc("TIME")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		final PID pid = d.getEnv().pid;
+		DoubleArray o = in[0].expr().sub(in[1]).eval().
+		    derivative(in[2],d.MAW());
+		return o.expr().mult(pid.time_constant).div(100).eval();
+	    }
+	});
+	add(new Channel("Calc LDR I e dt", "100mBar", "BoostPressureActual",
+		PID, raw("BoostPressureDesired"), raw("BoostPressureActual"),
+		calc("TIME")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		final PID pid = d.getEnv().pid;
+		DoubleArray o = in[0].expr().sub(in[1]).eval().
+		    integral(in[2],0,pid.I_limit/pid.I*100);
+		return o.expr().div(pid.time_constant).div(100).eval();
+	    }
+	});
+	add(new Channel("Calc LDR PID", "%", "BoostPressureActual", PID,
+		calc("Calc LDR error"), calc("Calc LDR I e dt"),
+		calc("Calc LDR de/dt")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		final PID pid = d.getEnv().pid;
+		final DoubleArray.TransferFunction fP =
+		    new DoubleArray.TransferFunction() {
+			public final double f(double x, double y) {
+			    if(Math.abs(x)<pid.P_deadband/100) return 0;
+			    return x*pid.P;
+			}
+		};
+		final DoubleArray.TransferFunction fD =
+		    new DoubleArray.TransferFunction() {
+			public final double f(double x, double y) {
+			    y=Math.abs(y);
+			    if(y<3) return x*pid.D[0];
+			    if(y<5) return x*pid.D[1];
+			    if(y<7) return x*pid.D[2];
+			    return x*pid.D[3];
+			}
+		};
+		DoubleArray E = in[0];
+		DoubleExpr P = E.expr().func(fP);
+		DoubleExpr I = in[1].expr().mult(pid.I);
+		DoubleExpr D = in[2].expr().func(fD,E);
+		return P.add(I).add(D).max(0).min(95).eval();
+	    }
+	});
+
+/*****************************************************************************/
+	add(new Channel("IgnitionTimingAngleOverallDesired", "\u00B0",
+		"IgnitionTimingAngleOverall", 0,
+		calc("IgnitionTimingAngleOverall"),
+		optional(calc("IgnitionRetardCyl0")),
+		optional(calc("IgnitionRetardCyl1")),
+		optional(calc("IgnitionRetardCyl2")),
+		optional(calc("IgnitionRetardCyl3")),
+		optional(calc("IgnitionRetardCyl4")),
+		optional(calc("IgnitionRetardCyl5")),
+		optional(calc("IgnitionRetardCyl6")),
+		optional(calc("IgnitionRetardCyl7"))) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		DoubleExpr averetard = null;
+		int count=0;
+		for(int i=1;i<in.length;i++) {
+		    if(in[i]!=null) {
+			if(averetard==null) averetard = in[i].expr();
+			else averetard = averetard.add(in[i]);
+			count++;
+		    }
+		}
+		if(count==0) return in[0];
+		// assume retard is always positive... some loggers log it negative
+		// abs it to normalize
+		return in[0].expr().add(averetard.div(count).abs()).eval();
+	    }
+	});
+
+/*****************************************************************************/
+	add(new Channel("Calc SimBoostPressureDesired", "mBar",
+		"EngineLoadDesired", 0,
+		raw("BaroPressure"), raw("EngineLoadDesired")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return in[1].expr().mult(10).add(300).max(in[0]).eval();
+	    }
+	});
+	add(new Channel("Calc LoadSpecified correction", "K",
+		"EngineLoadCorrectedSpecified", 0,
+		raw("EngineLoadCorrectedSpecified"), raw("EngineLoadSpecified")) {
+	    public DoubleArray f(ECUxDataset d, DoubleArray [] in) {
+		return in[0].div(in[1]);
+	    }
+	});
+
+	final HashSet<Channel> done = new HashSet<Channel>();
+	for(Channel c : channels.values())
+	    resolve(c, new HashSet<Channel>(), done);
+    }
+}
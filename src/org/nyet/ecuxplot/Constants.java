@@ -14,49 +14,92 @@ public class Constants {
     private static final double defaultDriveline_loss=.25;
 
     private Preferences prefs;
+    private volatile Snapshot snapshot;
+
+    /* current values, read these in loops.  See Filter.Snapshot */
+    public static final class Snapshot {
+	public final int version;
+	public final double mass;
+	public final double rpm_per_mph;
+	public final double Cd;
+	public final double FA;
+	public final double rolling_drag;
+	public final double static_loss;
+	public final double driveline_loss;
+
+	private Snapshot(Preferences p, int version) {
+	    this.version = version;
+	    this.mass = p.getDouble("mass", defaultMass);
+	    this.rpm_per_mph = p.getDouble("rpm_per_mph", defaultRpm_per_mph);
+	    this.Cd = p.getDouble("Cd", defaultCd);
+	    this.FA = p.getDouble("FA", defaultFA);
+	    this.rolling_drag = p.getDouble("rolling_drag", defaultRolling_drag);
+	    this.static_loss = p.getDouble("static_loss", defaultStatic_loss);
+	    this.driveline_loss = p.getDouble("driveline_loss", defaultDriveline_loss);
+	}
+
+	private boolean same(Snapshot o) {
+	    return o.mass==mass &&
+		o.rpm_per_mph==rpm_per_mph &&
+		o.Cd==Cd &&
+		o.FA==FA &&
+		o.rolling_drag==rolling_drag &&
+		o.static_loss==static_loss &&
+		o.driveline_loss==driveline_loss;
+	}
+    }
 
     public Constants(Preferences prefs) {
 	this.prefs = prefs.node(PREFS_TAG);
+	this.snapshot = new Snapshot(this.prefs, 0);
+    }
+
+    public Snapshot snapshot() { return this.snapshot; }
+    public int version() { return this.snapshot.version; }
+
+    public synchronized void refresh() {
+	final Snapshot s = new Snapshot(this.prefs, this.snapshot.version+1);
+	if(!s.same(this.snapshot)) this.snapshot = s;
     }
 
     public double mass() {
-	return this.prefs.getDouble("mass", defaultMass);
+	return this.snapshot.mass;
     }
     public void mass(Double val) {
 	this.prefs.putDouble("mass", val);
     }
     public double rpm_per_mph() {
-	return this.prefs.getDouble("rpm_per_mph", defaultRpm_per_mph);
+	return this.snapshot.rpm_per_mph;
     }
     public void rpm_per_mph(Double val) {
 	this.prefs.putDouble("rpm_per_mph", val);
     }
     public double Cd() {
-	return this.prefs.getDouble("Cd", defaultCd);
+	return this.snapshot.Cd;
     }
     public void Cd(Double val) {
 	this.prefs.putDouble("Cd", val);
     }
     public double FA() {
-	return this.prefs.getDouble("FA", defaultFA);
+	return this.snapshot.FA;
     }
     public void FA(Double val) {
 	this.prefs.putDouble("FA", val);
     }
     public double rolling_drag() {
-	return this.prefs.getDouble("rolling_drag", defaultRolling_drag);
+	return this.snapshot.rolling_drag;
     }
     public void rolling_drag(Double val) {
 	this.prefs.putDouble("rolling_drag", val);
     }
     public double static_loss() {
-	return this.prefs.getDouble("static_loss", defaultStatic_loss);
+	return this.snapshot.static_loss;
     }
     public void static_loss(Double val) {
 	this.prefs.putDouble("static_loss", val);
     }
     public double driveline_loss() {
-	return this.prefs.getDouble("driveline_loss", defaultDriveline_loss);
+	return this.snapshot.driveline_loss;
     }
     public void driveline_loss(Double val) {
 	this.prefs.putDouble("driveline_loss", val);
@@ -0,0 +1,17 @@
+package org.nyet.ecuxplot;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+/* any CSV with a header row, "name (units)" or just "name" */
+public class DefaultFormat extends LogFormat {
+    public String getName() { return "default"; }
+
+    public boolean detect(LogSniffer s) { return true; }
+
+    public String[][] parseHeaders(CSVReader reader, String[] h,
+	boolean detected, String fileId) throws Exception {
+	final String[] u = parseUnits(h);
+	for(int i=0;i<h.length;i++) h[i]=alias(h[i]);
+	return new String[][] {h, u};
+    }
+}
@@ -0,0 +1,320 @@
+package org.nyet.ecuxplot;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+import java.util.prefs.Preferences;
+
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import org.jfree.chart.ChartUtilities;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.plot.XYPlot;
+
+import org.nyet.logfile.Dataset;
+import org.nyet.util.Files;
+import org.nyet.util.Strings;
+import org.nyet.util.WorkerPool;
+
+/*
+ * Renders charts without a display.  Nothing here touches Swing; charts
+ * go straight from JFreeChart to PNG, so this runs with
+ * java.awt.headless=true on a build box.  Every log x preset pair is
+ * its own chart and they are rendered in parallel on the WorkerPool.
+ */
+public class ECUxBatch {
+    private static class BatchOptions extends Options {
+	private static final long serialVersionUID = 1L;
+
+	String[] presets = null;
+	File dir = new File(".");
+	java.awt.Dimension size = null;
+	boolean fats = false;
+	int fatsStart = 4200, fatsEnd = 6500;
+	boolean merge = false;
+	String[] files = new String[0];
+
+	@SuppressWarnings("static-access")
+	public BatchOptions() {
+	    Option p = OptionBuilder.withArgName("preset").hasArg()
+		.withDescription("Render this preset (may be repeated, default all)")
+		.create('p');
+	    Option o = OptionBuilder.withArgName("dir").hasArg()
+		.withDescription("Write output into this directory")
+		.create('o');
+	    Option w = OptionBuilder.withArgName("width").hasArg()
+		.withDescription("Chart width").create('w');
+	    Option h = OptionBuilder.withArgName("height").hasArg()
+		.withDescription("Chart height").create('h');
+	    Option r = OptionBuilder.withArgName("start-end").hasArg()
+		.withDescription("FATS RPM range (default 4200-6500)")
+		.create('r');
+
+	    Option f = new Option("f", "Also write a FATS table per log");
+	    Option m = new Option("m", "Overlay all logs on one chart");
+
+	    this.addOption(p);
+	    this.addOption(o);
+	    this.addOption(w);
+	    this.addOption(h);
+	    this.addOption(r);
+
+	    this.addOption(f);
+	    this.addOption(m);
+	}
+
+	public void Parse(String args[]) throws ParseException {
+	    CommandLine line = new BasicParser().parse(this, args);
+
+	    if (line.hasOption('p'))
+		this.presets = line.getOptionValues("p");
+
+	    if (line.hasOption('o'))
+		this.dir = new File(line.getOptionValue("o"));
+
+	    if (line.hasOption('w') || line.hasOption('h')) {
+		if (!line.hasOption('w') || !line.hasOption('h'))
+		    throw new ParseException("-w and -h go together");
+		try {
+		    this.size = new java.awt.Dimension(
+			Integer.valueOf(line.getOptionValue("w")),
+			Integer.valueOf(line.getOptionValue("h")));
+		} catch (NumberFormatException e) {
+		    throw new ParseException("bad chart size");
+		}
+	    }
+
+	    if (line.hasOption('f'))
+		this.fats = true;
+
+	    if (line.hasOption('r')) {
+		final String[] a = line.getOptionValue("r").split("-");
+		try {
+		    this.fatsStart = Integer.valueOf(a[0]);
+		    this.fatsEnd = Integer.valueOf(a[1]);
+		} catch (Exception e) {
+		    throw new ParseException("-r takes start-end, e.g. 4200-6500");
+		}
+	    }
+
+	    if (line.hasOption('m'))
+		this.merge = true;
+
+	    this.files = line.getArgs();
+	    if (this.files.length == 0)
+		throw new ParseException("no log files given");
+	}
+    }
+
+    private static Callable<ECUxDataset> loader(final String file,
+	final Preferences prefs) {
+	return new Callable<ECUxDataset>() {
+	    public ECUxDataset call() throws Exception {
+		return new ECUxDataset(new File(file).getAbsolutePath(),
+		    new Env(prefs), new Filter(prefs));
+	    }
+	};
+    }
+
+    private static TreeMap<String, ECUxDataset> load(List<String> files,
+	Preferences prefs) throws Exception {
+	final ArrayList<Callable<ECUxDataset>> tasks =
+	    new ArrayList<Callable<ECUxDataset>>();
+	for(String s : files) tasks.add(loader(s, prefs));
+
+	final TreeMap<String, ECUxDataset> out =
+	    new TreeMap<String, ECUxDataset>();
+	for(ECUxDataset d : WorkerPool.run(tasks))
+	    out.put(d.getFileId(), d);
+	return out;
+    }
+
+    /* same series, colors and strokes as ECUxPlot.loadPreset */
+    public static JFreeChart createChart(TreeMap<String, ECUxDataset> datasets,
+	Filter filter, Comparable<?> xkey, Comparable<?>[][] ykeys,
+	boolean scatter, String title) {
+	final JFreeChart chart = ECUxChartFactory.create2AxisChart(scatter);
+	final XYPlot plot = chart.getXYPlot();
+
+	for(int axis=0; axis<ykeys.length; axis++) {
+	    final ECUxXYDataset pds = (ECUxXYDataset)plot.getDataset(axis);
+	    for(Comparable<?> ykey : ykeys[axis]) {
+		int stroke=0;
+		for(ECUxDataset data : datasets.values()) {
+		    if(data.exists(ykey)) {
+			Dataset.Key key = data.new Key(data.getFileId(),
+			    ykey.toString());
+			if(datasets.size()==1) key.hideFilename();
+			Integer[] series = ECUxChartFactory.addDataset(pds,
+			    data, xkey, key, filter);
+			ECUxChartFactory.setAxisPaint(chart, axis, pds, key,
+			    series);
+			ECUxChartFactory.setAxisStroke(chart, axis, pds, key,
+			    series, stroke);
+		    }
+		    stroke++;
+		}
+	    }
+	}
+
+	final String t = ECUxChartFactory.updateYAxisLabels(plot, datasets);
+	ECUxChartFactory.updateXAxisLabel(plot, datasets, xkey);
+	ECUxChartFactory.setChartStyle(chart, !scatter, scatter);
+	chart.setTitle(title!=null?title:t);
+	return chart;
+    }
+
+    private static JFreeChart createChart(TreeMap<String, ECUxDataset> datasets,
+	Preferences prefs, ECUxPreset p) {
+	// addDataset moves currentRange around, don't share one
+	return createChart(datasets, new Filter(prefs), p.xkey(),
+	    new Comparable<?>[][] { p.ykeys(0), p.ykeys(1) }, p.scatter(),
+	    p.tag());
+    }
+
+    private static String stem(TreeMap<String, ECUxDataset> datasets) {
+	final ArrayList<String> stems = new ArrayList<String>();
+	for(String s : datasets.keySet()) stems.add(Files.stem(s));
+	return Strings.join("_vs_", stems);
+    }
+
+    private static void writeFATS(ECUxDataset data, File out, int start,
+	int end) throws Exception {
+	final PrintWriter w = new PrintWriter(new FileWriter(out));
+	try {
+	    w.println("run," + start + "-" + end + " RPM (s)");
+	    for(int i=0; i<data.getRanges().size(); i++) {
+		String et;
+		try {
+		    et = String.valueOf(data.calcFATS(i, start, end));
+		} catch (Exception e) {
+		    et = "";
+		}
+		w.println((i+1) + "," + et);
+	    }
+	} finally {
+	    w.close();
+	}
+	if (w.checkError())
+	    throw new Exception(out + ": write failed");
+    }
+
+    private static Callable<File> renderer(
+	final TreeMap<String, ECUxDataset> datasets, final Preferences prefs,
+	final String preset, final File out, final java.awt.Dimension size) {
+	return new Callable<File>() {
+	    public File call() throws Exception {
+		final JFreeChart chart = createChart(datasets, prefs,
+		    new ECUxPreset(preset));
+		ChartUtilities.saveChartAsPNG(out, chart, size.width,
+		    size.height);
+		return out;
+	    }
+	};
+    }
+
+    /* for ECUxPlot -o: one chart of all the files, like the window would show */
+    public static void render(List<String> files, String preset, File out,
+	java.awt.Dimension size) throws Exception {
+	final Preferences prefs = ECUxPlot.getPreferences();
+	if(size==null) size = ECUxPlot.windowSize(prefs);
+	final TreeMap<String, ECUxDataset> datasets = load(files, prefs);
+
+	final JFreeChart chart;
+	if(preset!=null) {
+	    chart = createChart(datasets, prefs, new ECUxPreset(preset));
+	} else {
+	    chart = createChart(datasets, new Filter(prefs),
+		ECUxPlot.xkey(prefs), new Comparable<?>[][] {
+		    ECUxPlot.ykeys(prefs, 0), ECUxPlot.ykeys(prefs, 1) },
+		prefs.getBoolean("scatter", false), prefs.get("title", null));
+	}
+	ChartUtilities.saveChartAsPNG(out, chart, size.width, size.height);
+    }
+
+    public static void main(final String[] args) {
+	System.setProperty("java.awt.headless", "true");
+
+	final BatchOptions o = new BatchOptions();
+	try {
+	    o.Parse(args);
+	} catch (ParseException e) {
+	    System.err.println(e.getMessage());
+	    new HelpFormatter().printHelp(
+		"ECUxBatch [options] LogFiles ...", o);
+	    System.exit(1);
+	}
+
+	try {
+	    final Preferences prefs = ECUxPlot.getPreferences();
+	    final java.awt.Dimension size =
+		o.size!=null?o.size:ECUxPlot.windowSize(prefs);
+	    final String[] presets =
+		o.presets!=null?o.presets:ECUxPreset.getPresets();
+
+	    if(!o.dir.isDirectory() && !o.dir.mkdirs())
+		throw new Exception(o.dir + ": can't create directory");
+
+	    final long t0 = System.currentTimeMillis();
+	    final TreeMap<String, ECUxDataset> all =
+		load(Arrays.asList(o.files), prefs);
+
+	    // one group of datasets per chart
+	    final ArrayList<TreeMap<String, ECUxDataset>> groups =
+		new ArrayList<TreeMap<String, ECUxDataset>>();
+	    if(o.merge) {
+		groups.add(all);
+	    } else {
+		for(ECUxDataset d : all.values()) {
+		    final TreeMap<String, ECUxDataset> g =
+			new TreeMap<String, ECUxDataset>();
+		    g.put(d.getFileId(), d);
+		    groups.add(g);
+		}
+	    }
+
+	    final ArrayList<Callable<File>> tasks =
+		new ArrayList<Callable<File>>();
+	    for(TreeMap<String, ECUxDataset> g : groups) {
+		final String stem = stem(g);
+		for(String p : presets)
+		    tasks.add(renderer(g, prefs, p,
+			new File(o.dir, stem + "-" + p + ".png"), size));
+	    }
+
+	    for(File f : WorkerPool.run(tasks))
+		System.out.println(f.getPath());
+
+	    if(o.fats) {
+		for(ECUxDataset d : all.values()) {
+		    final File f = new File(o.dir,
+			Files.stem(d.getFileId()) + "-FATS.csv");
+		    writeFATS(d, f, o.fatsStart, o.fatsEnd);
+		    System.out.println(f.getPath());
+		}
+	    }
+
+	    final double secs = (System.currentTimeMillis()-t0)/1000.0;
+	    System.out.println(String.format(
+		"%d charts in %.2f s (%.1f charts/sec)", tasks.size(), secs,
+		secs>0?tasks.size()/secs:0.0));
+	} catch (Exception e) {
+	    e.printStackTrace();
+	    System.exit(1);
+	}
+	System.exit(0);
+    }
+}
@@ -2,6 +2,7 @@ package org.nyet.ecuxplot;
 
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.Map;
 
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.JFreeChart;
@@ -10,9 +11,9 @@ import org.jfree.chart.axis.NumberAxis;
 import org.jfree.chart.renderer.xy.*;
 import org.jfree.chart.plot.XYPlot;
 import org.jfree.data.xy.XYDataset;
-import org.jfree.data.xy.DefaultXYDataset;
 
 import org.nyet.logfile.Dataset;
+import org.nyet.util.Strings;
 
 public class ECUxChartFactory {
     private static void addAxis(XYPlot plot, String label, XYDataset dataset,
@@ -28,11 +29,11 @@ public class ECUxChartFactory {
     private static JFreeChart create2AxisXYLineChart () {
 	final JFreeChart chart = ChartFactory.createXYLineChart(
 	    "", "", "",
-	    new DefaultXYDataset(), PlotOrientation.VERTICAL,
+	    new ECUxXYDataset(), PlotOrientation.VERTICAL,
 	    true, true, false);
 
 	final XYPlot plot = chart.getXYPlot();
-	addAxis(plot, "", new DefaultXYDataset(), 1, true, false);
+	addAxis(plot, "", new ECUxXYDataset(), 1, true, false);
 
 	return chart;
     }
@@ -40,11 +41,11 @@ public class ECUxChartFactory {
     private static JFreeChart create2AxisScatterPlot () {
 	final JFreeChart chart = ChartFactory.createScatterPlot(
 	    "", "", "",
-	    new DefaultXYDataset(), PlotOrientation.VERTICAL,
+	    new ECUxXYDataset(), PlotOrientation.VERTICAL,
 	    true, true, false);
 
 	final XYPlot plot = chart.getXYPlot();
-	addAxis(plot, "", new DefaultXYDataset(), 1, false, true);
+	addAxis(plot, "", new ECUxXYDataset(), 1, false, true);
 
 	return chart;
     }
@@ -80,7 +81,7 @@ public class ECUxChartFactory {
 
     // set all series of a given ykey different shades of a base paint
     public static void setAxisPaint(JFreeChart chart, int axis,
-	DefaultXYDataset d, Dataset.Key ykey, Integer[] series) {
+	ECUxXYDataset d, Dataset.Key ykey, Integer[] series) {
 
 	final XYPlot plot = chart.getXYPlot();
 	final XYItemRenderer renderer = plot.getRenderer(axis);
@@ -122,7 +123,7 @@ public class ECUxChartFactory {
 
     // set all series for a given filename to the same stroke
     public static void setAxisStroke(JFreeChart chart, int axis,
-	DefaultXYDataset d, Dataset.Key ykey, Integer[] series, int index) {
+	ECUxXYDataset d, Dataset.Key ykey, Integer[] series, int index) {
 	final XYPlot plot = chart.getXYPlot();
 	final XYItemRenderer renderer = plot.getRenderer(axis);
 
@@ -146,7 +147,7 @@ public class ECUxChartFactory {
 	    renderer.setSeriesStroke(series[i], strokes[index%strokes.length]);
     }
 
-    public static Integer[] addDataset(DefaultXYDataset d, ECUxDataset data,
+    public static Integer[] addDataset(ECUxXYDataset d, ECUxDataset data,
 		    Comparable<?> xkey, Dataset.Key ykey, Filter filter) {
 	ArrayList<Integer> ret = new ArrayList<Integer>();
 	ArrayList<Dataset.Range> ranges = data.getRanges();
@@ -174,10 +175,7 @@ public class ECUxChartFactory {
 
 	    Dataset.Range r=ranges.get(i);
 	    try {
-		double [][] s = new double [][]{
-		    data.getData(xkey, r),
-		    data.getData(ykey, r)};
-		d.addSeries(key, s);
+		d.addSeries(key, data.getData(xkey, r), data.getData(ykey, r));
 		ret.add(d.indexOf(key));
 	    } catch (Exception e){
 		d.addSeries(key, empty);
@@ -188,14 +186,14 @@ public class ECUxChartFactory {
     }
 
     // remove ALL series from the dataset
-    public static void removeDataset(DefaultXYDataset d) {
+    public static void removeDataset(ECUxXYDataset d) {
 	while(d.getSeriesCount()>0) {
 	    d.removeSeries(d.getSeriesKey(0));
 	}
     }
 
     // remove ALL series that match the data column tag
-    public static void removeDataset(DefaultXYDataset d, Comparable<?> ykey) {
+    public static void removeDataset(ECUxXYDataset d, Comparable<?> ykey) {
 	if(ykey instanceof Dataset.Key) {
 	    // pull out ONLY the data column tag, and ykey is now a String.
 	    ykey = ((Dataset.Key)ykey).getString();
@@ -211,7 +209,7 @@ public class ECUxChartFactory {
 	}
     }
 
-    public static String [] getDatasetYkeys(DefaultXYDataset d) {
+    public static String [] getDatasetYkeys(ECUxXYDataset d) {
 	ArrayList<String> ret = new ArrayList<String>();
 	for(int i=0;i<d.getSeriesCount();i++) {
 	    Comparable<?> key = d.getSeriesKey(i);
@@ -226,6 +224,74 @@ public class ECUxChartFactory {
 	return ret.toArray(new String[0]);
     }
 
+    private static String findUnits(Map<String, ECUxDataset> datasets,
+	Comparable<?> key) {
+	ArrayList<String> units = new ArrayList<String>();
+	for(ECUxDataset d : datasets.values()) {
+	    String u = d.units(key);
+	    if(u==null || u.length()==0) continue;
+	    if(!units.contains(u)) units.add(u);
+	}
+	return Strings.join(",", units);
+    }
+
+    // label the y axes from the units of their series, returns a title
+    public static String updateYAxisLabels(XYPlot plot,
+	Map<String, ECUxDataset> datasets) {
+	ArrayList<String> title = new ArrayList<String>();
+	for(int axis=0; axis<plot.getDatasetCount(); axis++) {
+	    ArrayList<String> seriesTitle = new ArrayList<String>();
+	    ArrayList<String> label= new ArrayList<String>();
+	    final XYDataset dataset = plot.getDataset(axis);
+	    if(dataset!=null) {
+		for(int series=0; series<dataset.getSeriesCount(); series++) {
+		    Comparable<?> key = dataset.getSeriesKey(series);
+		    if(key==null) continue;
+		    String s;
+
+		    if(key instanceof Dataset.Key)
+			s = ((Dataset.Key)key).getString();
+		    else
+			s = key.toString();
+
+		    // construct title array
+		    if(!seriesTitle.contains(s)) seriesTitle.add(s);
+
+		    // construct y axis label array
+		    String l = findUnits(datasets, key);
+		    if(l==null || l.length()==0) continue;
+		    if(!label.contains(l)) label.add(l);
+		}
+	    }
+
+	    if(seriesTitle.size()>0)
+		title.add(Strings.join(", ", seriesTitle));
+
+	    plot.getRangeAxis(axis).setLabel(Strings.join(",",label));
+	    // hide axis if this axis has no series
+	    plot.getRangeAxis(axis).setVisible(dataset.getSeriesCount()>0);
+	}
+	return Strings.join(" and ", title);
+    }
+
+    public static void updateXAxisLabel(XYPlot plot,
+	Map<String, ECUxDataset> datasets, Comparable<?> xkey) {
+	// find x axis label. just pick first one that has units we can use
+	String label = "";
+	for (ECUxDataset data : datasets.values()) {
+	    if(data.get(xkey)!=null) {
+		String units = data.units(xkey);
+		if(units != null) {
+		    label = xkey.toString();
+		    if(label.indexOf(units)==-1)
+			label += " ("+units+")";
+		    break;
+		}
+	    }
+	}
+	plot.getDomainAxis().setLabel(label);
+    }
+
     public static JFreeChart createFATSChart (FATSDataset dataset) {
 	return ChartFactory.createBarChart3D (
 	    dataset.getTitle(), "", "",
@@ -0,0 +1,19 @@
+package org.nyet.ecuxplot;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+public class ECUxFormat extends LogFormat {
+    public String getName() { return "ecux"; }
+    public int getType() { return ECUxDataset.LOG_ECUX; }
+    // ECUx has time in ms. Nobody else does.
+    public double getTicksPerSecond() { return 1000; }
+
+    public boolean detect(LogSniffer s) {
+	return s.first().equals("TIME");
+    }
+
+    public String[][] parseHeaders(CSVReader reader, String[] h,
+	boolean detected, String fileId) throws Exception {
+	return new String[][] {h, parseUnits(h)};
+    }
+}
@@ -1,29 +1,34 @@
 package org.nyet.ecuxplot;
 
 import java.io.File;
-import java.io.IOException;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
 import java.util.prefs.Preferences;
 
 import java.awt.Point;
 import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 
 import javax.swing.*;
+import javax.swing.Timer;
 
 import com.apple.eawt.*;
 
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.plot.XYPlot;
 
-import org.jfree.data.xy.DefaultXYDataset;
-
 import org.jfree.ui.ApplicationFrame;
 import org.jfree.ui.RefineryUtilities;
 
 import org.nyet.util.*;
 
 import org.nyet.logfile.Dataset;
+import org.nyet.logfile.DatasetCache;
 
 public class ECUxPlot extends ApplicationFrame implements SubActionListener, FileDropHost {
     /**
@@ -37,6 +42,10 @@ public class ECUxPlot extends ApplicationFrame implements SubActionListener, Fil
     private ECUxChartPanel chartPanel;
     private FATSChartFrame fatsFrame;
 
+    // followed files are checked, and the chart redrawn, at most this often
+    private static final int FOLLOW_MS = 250;
+    private Timer followTimer;
+
     // Menus
     private JMenuBar menuBar;
     private AxisMenu xAxis;
@@ -108,25 +117,28 @@ public class ECUxPlot extends ApplicationFrame implements SubActionListener, Fil
       return this.prefs.getBoolean("showfats", false);
     }
 
-    private Comparable<?> xkey() {
+    static Comparable<?> xkey(Preferences prefs) {
 	final Comparable<?> defaultXkey = new ECUxPreset("Power").xkey();
-	return this.prefs.get("xkey", defaultXkey.toString());
+	return prefs.get("xkey", defaultXkey.toString());
     }
+    private Comparable<?> xkey() { return xkey(this.prefs); }
 
-    private Comparable<?>[] ykeys(int index) {
+    static Comparable<?>[] ykeys(Preferences prefs, int index) {
 	final Comparable<?>[] ykeys = new ECUxPreset("Power").ykeys(0);
 	final Comparable<?>[] ykeys2 = new ECUxPreset("Power").ykeys(1);
 	final String[] defaultYkeys = { Strings.join(",", ykeys), Strings.join(",", ykeys2) };
 
-	String k=this.prefs.get("ykeys"+index, defaultYkeys[index]);
+	String k=prefs.get("ykeys"+index, defaultYkeys[index]);
 	return k.split(",");
     }
+    private Comparable<?>[] ykeys(int index) { return ykeys(this.prefs, index); }
 
-    private java.awt.Dimension windowSize() {
+    static java.awt.Dimension windowSize(Preferences prefs) {
 	return new java.awt.Dimension(
-	    this.prefs.getInt("windowWidth", 800),
-	    this.prefs.getInt("windowHeight", 600));
+	    prefs.getInt("windowWidth", 800),
+	    prefs.getInt("windowHeight", 600));
     }
+    private java.awt.Dimension windowSize() { return windowSize(this.prefs); }
 
     private void prefsPutWindowSize() {
 	this.prefs.putInt("windowWidth", this.getWidth());
@@ -141,7 +153,7 @@ public class ECUxPlot extends ApplicationFrame implements SubActionListener, Fil
     }
     private void prefsPutYkeys(int axis) {
 	final XYPlot plot = this.chartPanel.getChart().getXYPlot();
-	DefaultXYDataset dataset = (DefaultXYDataset)plot.getDataset(axis);
+	ECUxXYDataset dataset = (ECUxXYDataset)plot.getDataset(axis);
 	this.prefsPutYkeys(axis, ECUxChartFactory.getDatasetYkeys(dataset));
     }
 
@@ -221,24 +233,161 @@ public class ECUxPlot extends ApplicationFrame implements SubActionListener, Fil
 
 	// grab title from prefs, or just use what current title is
 	this.chartTitle(prefs.get("title", this.chartTitle()));
+
+	updateFollow();
     }
 
-    public void loadFiles(ArrayList<String> files) {
-	WaitCursor.startWaitCursor(this);
-	for(String s : files) {
-	    if(s.length()>0) _loadFile(new File(s), false);
+    /* polls while any open file is followed */
+    private void updateFollow() {
+	boolean follow = false;
+	for(ECUxDataset d : this.fileDatasets.values())
+	    follow |= d.isFollowed();
+	if(!follow) {
+	    if(this.followTimer!=null) this.followTimer.stop();
+	    return;
+	}
+	if(this.followTimer==null) {
+	    this.followTimer = new Timer(FOLLOW_MS, new ActionListener() {
+		public void actionPerformed(ActionEvent e) { follow(); }
+	    });
+	    // a slow redraw skips ticks instead of queueing them up
+	    this.followTimer.setCoalesce(true);
+	}
+	this.followTimer.start();
+    }
+
+    /* reads what was appended to followed files, redraws if anything was */
+    private void follow() {
+	int rows = 0;
+	final ArrayList<String> errors = new ArrayList<String>();
+	for(ECUxDataset d : this.fileDatasets.values()) {
+	    if(!d.isFollowed()) continue;
+	    try {
+		rows += d.tail();
+	    } catch (Exception e) {
+		// just this one, the rest keep going
+		d.unfollow();
+		errors.add(e.getMessage());
+	    }
+	}
+	if(rows>0) redraw();
+	if(!errors.isEmpty()) {
+	    updateFollow();
+	    JOptionPane.showMessageDialog(this, "Stopped following:\n" +
+		Strings.join("\n", errors));
 	}
-	fileDatasetsChanged();
-	WaitCursor.stopWaitCursor(this);
+    }
+
+    public void dispose() {
+	if(this.followTimer!=null) this.followTimer.stop();
+	closeDatasets();
+	super.dispose();
+    }
+
+    private Callable<ECUxDataset> loader(final File file) {
+	return new Callable<ECUxDataset>() {
+	    public ECUxDataset call() throws Exception {
+		return new ECUxDataset(file.getAbsolutePath(), env, filter,
+		    ECUxDataset.followEnabled(prefs));
+	    }
+	};
+    }
+
+    private static String loadError(File file, Throwable e) {
+	if(e instanceof ExecutionException && e.getCause()!=null)
+	    e=e.getCause();
+	return file.getName() + ": " + e;
+    }
+
+    private void showLoadErrors(List<String> errors) {
+	if(errors.isEmpty()) return;
+	JOptionPane.showMessageDialog(this, "Failed to load:\n" +
+	    Strings.join("\n", errors));
+    }
+
+    // then runs on the EDT once every file is in, for callers that need them
+    public void loadFiles(ArrayList<String> files, Runnable then) {
+	final ArrayList<File> list = new ArrayList<File>();
+	for(String s : files)
+	    if(s.length()>0) list.add(new File(s));
+	loadFiles(list, then);
     }
 
     public void loadFiles(List<File> files) {
+	if(!files.isEmpty()) loadFiles(files, null);
+    }
+
+    // parses in the background, datasets are added as they complete
+    private void loadFiles(final List<File> files, final Runnable then) {
 	WaitCursor.startWaitCursor(this);
-	for(File f : files) {
-	    _loadFile(f, false);
-	}
-	fileDatasetsChanged();
-	WaitCursor.stopWaitCursor(this);
+	ensureChartPanel();
+
+	final SwingWorker<Void, Object[]> worker = new SwingWorker<Void, Object[]>() {
+	    private final ArrayList<String> errors = new ArrayList<String>();
+	    private int done = 0;
+
+	    protected Void doInBackground() throws Exception {
+		final CompletionService<ECUxDataset> cs =
+		    new ExecutorCompletionService<ECUxDataset>(WorkerPool.get());
+		final HashMap<Future<ECUxDataset>, File> pending =
+		    new HashMap<Future<ECUxDataset>, File>();
+		for(File f : files) pending.put(cs.submit(loader(f)), f);
+		for(int i=0;i<files.size();i++) {
+		    final Future<ECUxDataset> r = cs.take();
+		    final File f = pending.get(r);
+		    try {
+			publish(new Object[] {f, r.get()});
+		    } catch (ExecutionException e) {
+			publish(new Object[] {f, e});
+		    }
+		}
+		return null;
+	    }
+
+	    protected void process(List<Object[]> chunks) {
+		for(Object[] o : chunks) {
+		    final File f = (File)o[0];
+		    if(o[1] instanceof ECUxDataset)
+			addFileDataset(f, (ECUxDataset)o[1]);
+		    else
+			this.errors.add(loadError(f, (Throwable)o[1]));
+		    this.done++;
+		}
+		setTitle(String.format("ECUxPlot loading %d/%d",
+		    this.done, files.size()));
+	    }
+
+	    protected void done() {
+		fileDatasetsChanged();
+		WaitCursor.stopWaitCursor(ECUxPlot.this);
+		showLoadErrors(this.errors);
+		if(then!=null) then.run();
+	    }
+	};
+	worker.execute();
+    }
+
+    /* connects in the background, the stream is followed like a file */
+    private void openStream(final String source) {
+	WaitCursor.startWaitCursor(this);
+	ensureChartPanel();
+	new SwingWorker<LiveDataset, Void>() {
+	    protected LiveDataset doInBackground() throws Exception {
+		return new LiveDataset(source, env, filter,
+		    LiveDataset.capacity(prefs));
+	    }
+
+	    protected void done() {
+		WaitCursor.stopWaitCursor(ECUxPlot.this);
+		try {
+		    final LiveDataset d = get();
+		    putDataset(d.getFileId(), d);
+		    fileDatasetsChanged();
+		} catch (Exception e) {
+		    showLoadErrors(Arrays.asList(loadError(new File(source), e)));
+		}
+	    }
+	}.execute();
     }
 
     public void loadFile(File file) { loadFile(file, false); }
@@ -248,23 +397,32 @@ public class ECUxPlot extends ApplicationFrame implements SubActionListener, Fil
 	fileDatasetsChanged();
 	WaitCursor.stopWaitCursor(this);
     }
+
+    private void ensureChartPanel() {
+	if(this.chartPanel == null) {
+	    final JFreeChart chart =
+		ECUxChartFactory.create2AxisChart(this.scatter());
+	    this.chartPanel = new ECUxChartPanel(chart);
+	    setContentPane(this.chartPanel);
+	}
+    }
+
+    private void addFileDataset(File file, ECUxDataset data) {
+	putDataset(file.getName(), data);
+	this.files.add(file.getAbsolutePath());
+    }
+
     private void _loadFile(File file, Boolean replace) {
 	try {
 	    // replacing, nuke all the currently loaded datasets
 	    if(replace) this.nuke();
 
-	    if(this.chartPanel == null) {
-		final JFreeChart chart =
-		    ECUxChartFactory.create2AxisChart(this.scatter());
-		this.chartPanel = new ECUxChartPanel(chart);
-		setContentPane(this.chartPanel);
-	    }
+	    ensureChartPanel();
 
 	    ECUxDataset data = new ECUxDataset(file.getAbsolutePath(),
-		    this.env, this.filter);
+		    this.env, this.filter, ECUxDataset.followEnabled(this.prefs));
 
-	    this.fileDatasets.put(file.getName(), data);
-	    this.files.add(file.getAbsolutePath());
+	    addFileDataset(file, data);
 	} catch (Exception e) {
 	    JOptionPane.showMessageDialog(this, e);
 	    // e.printStackTrace();
@@ -280,8 +438,19 @@ public class ECUxPlot extends ApplicationFrame implements SubActionListener, Fil
 	    this.fatsFrame.setVisible(b);
     }
 
+    /* closes whatever it replaces, a stream has a reader to stop */
+    private void putDataset(String id, ECUxDataset data) {
+	final ECUxDataset old = this.fileDatasets.put(id, data);
+	if(old!=null && old!=data) old.close();
+    }
+
+    private void closeDatasets() {
+	for(ECUxDataset d : this.fileDatasets.values()) d.close();
+    }
+
     // nuke datasets
     private void nuke() {
+	closeDatasets();
 	this.fileDatasets = new TreeMap<String, ECUxDataset>();
 	this.files = new ArrayList<String>();
 	this.setTitle("ECUxPlot");
@@ -320,7 +489,7 @@ public class ECUxPlot extends ApplicationFrame implements SubActionListener, Fil
     }
 
     private Point newChart() { return this.newChart(null, null); }
-    private Point newChart(String preset, Point where) {
+    private Point newChart(final String preset, Point where) {
 	// do not exit if this child plot is closed
 	final ECUxPlot plot = new ECUxPlot("ECUxPlot", this.plotlist);
 	plot.pack();
@@ -330,13 +499,17 @@ public class ECUxPlot extends ApplicationFrame implements SubActionListener, Fil
 
 	plot.setLocation(where);
 
-	if (this.files!=null) plot.loadFiles(this.files);
-
-	if (preset!=null) plot.loadPreset(preset);
-	else {
-	    plot.removeAllY();
-	    plot.updatePlotTitleAndYAxisLabels();
-	}
+	final Runnable then = new Runnable() {
+	    public void run() {
+		if (preset!=null) plot.loadPreset(preset);
+		else {
+		    plot.removeAllY();
+		    plot.updatePlotTitleAndYAxisLabels();
+		}
+	    }
+	};
+	if (this.files!=null) plot.loadFiles(this.files, then);
+	else then.run();
 
 	plot.setMyVisible(true);
 	return where;
@@ -448,7 +621,8 @@ public class ECUxPlot extends ApplicationFrame implements SubActionListener, Fil
 		String dir = this.prefs.get("chooserDir",
 		    System.getProperty("user.home"));
 		fc = new JFileChooser(dir);
-		fc.setFileFilter(new GenericFileFilter("csv", "CSV File"));
+		fc.setFileFilter(new GenericFileFilter(
+		    new String[] {"csv", "csv.gz"}, "CSV File"));
 	    }
 	    int ret = fc.showOpenDialog(this);
 	    if(ret == JFileChooser.APPROVE_OPTION) {
@@ -463,6 +637,14 @@ public class ECUxPlot extends ApplicationFrame implements SubActionListener, Fil
 		this.prefs.put("chooserDir",
 		    fc.getCurrentDirectory().toString());
 	    }
+	} else if(source.getText().equals("Open Stream...")) {
+	    final String s = JOptionPane.showInputDialog(this,
+		"host:port, :port for localhost, or a named pipe",
+		this.prefs.get("streamSource", ":5555"));
+	    if(s!=null && s.length()>0) {
+		this.prefs.put("streamSource", s);
+		openStream(s);
+	    }
 	} else if(source.getText().equals("Scatter plot")) {
 	    boolean s = source.isSelected();
 	    this.prefs.putBoolean("scatter", s);
@@ -515,6 +697,23 @@ public class ECUxPlot extends ApplicationFrame implements SubActionListener, Fil
 		this.fatsFrame.setVisible(s);
 	    }
 	    rebuild();
+	} else if(source.getText().equals("Follow files")) {
+	    this.prefs.putBoolean("follow", source.isSelected());
+	} else if(source.getText().equals("Cache parsed logs")) {
+	    this.prefs.putBoolean("logCache", source.isSelected());
+	} else if(source.getText().equals("Log cache directory...")) {
+	    final JFileChooser fileChooser = new JFileChooser(
+		ECUxDataset.logCache(this.prefs).getDir());
+	    fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+	    if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION)
+		this.prefs.put("logCacheDir",
+		    fileChooser.getSelectedFile().getPath());
+	} else if(source.getText().equals("Purge log cache")) {
+	    final DatasetCache cache = ECUxDataset.logCache(this.prefs);
+	    final long bytes = cache.size();
+	    final int n = cache.purge();
+	    JOptionPane.showMessageDialog(this, String.format(
+		"Removed %d cached logs, %.1f MB", n, bytes/1048576.0));
 	} else {
 	    JOptionPane.showMessageDialog(this,
 		"unhandled getText=" + source.getText() +
@@ -522,16 +721,6 @@ public class ECUxPlot extends ApplicationFrame implements SubActionListener, Fil
 	}
     }
 
-    private String findUnits(Comparable<?> key) {
-	ArrayList<String> units = new ArrayList<String>();
-	for(ECUxDataset d : this.fileDatasets.values()) {
-	    String u = d.units(key);
-	    if(u==null || u.length()==0) continue;
-	    if(!units.contains(u)) units.add(u);
-	}
-	return Strings.join(",", units);
-    }
-
     private void chartTitle(String title) {
 	this.chartPanel.getChart().setTitle(title);
     }
@@ -545,40 +734,8 @@ public class ECUxPlot extends ApplicationFrame implements SubActionListener, Fil
 		    this.chartPanel.getChart().getXYPlot());
     }
     private void updatePlotTitleAndYAxisLabels(XYPlot plot) {
-	ArrayList<String> title = new ArrayList<String>();
-	for(int axis=0; axis<plot.getDatasetCount(); axis++) {
-	    ArrayList<String> seriesTitle = new ArrayList<String>();
-	    ArrayList<String> label= new ArrayList<String>();
-	    final org.jfree.data.xy.XYDataset dataset = plot.getDataset(axis);
-	    if(dataset!=null) {
-		for(int series=0; series<dataset.getSeriesCount(); series++) {
-		    Comparable<?> key = dataset.getSeriesKey(series);
-		    if(key==null) continue;
-		    String s;
-
-		    if(key instanceof Dataset.Key)
-			s = ((Dataset.Key)key).getString();
-		    else
-			s = key.toString();
-
-		    // construct title array
-		    if(!seriesTitle.contains(s)) seriesTitle.add(s);
-
-		    // construct y axis label array
-		    String l = findUnits(key);
-		    if(l==null || l.length()==0) continue;
-		    if(!label.contains(l)) label.add(l);
-		}
-	    }
-
-	    if(seriesTitle.size()>0)
-		title.add(Strings.join(", ", seriesTitle));
-
-	    plot.getRangeAxis(axis).setLabel(Strings.join(",",label));
-	    // hide axis if this axis has no series
-	    plot.getRangeAxis(axis).setVisible(dataset.getSeriesCount()>0);
-	}
-	this.chartTitle(Strings.join(" and ", title));
+	this.chartTitle(ECUxChartFactory.updateYAxisLabels(plot,
+	    this.fileDatasets));
     }
 
     private void updateXAxisLabel() {
@@ -586,23 +743,11 @@ public class ECUxPlot extends ApplicationFrame implements SubActionListener, Fil
 	    updateXAxisLabel(this.chartPanel.getChart().getXYPlot());
     }
     private void updateXAxisLabel(XYPlot plot) {
-	// find x axis label. just pick first one that has units we can use
-	String label = "";
-	for (ECUxDataset data : this.fileDatasets.values()) {
-	    if(data.get(this.xkey())!=null) {
-		String units = data.units(this.xkey());
-		if(units != null) {
-		    label = this.xkey().toString();
-		    if(label.indexOf(units)==-1)
-			label += " ("+units+")";
-		    break;
-		}
-	    }
-	}
-	plot.getDomainAxis().setLabel(label);
+	ECUxChartFactory.updateXAxisLabel(plot, this.fileDatasets,
+	    this.xkey());
     }
 
-    private void addDataset(int axis, DefaultXYDataset d,
+    private void addDataset(int axis, ECUxXYDataset d,
 	    Dataset.Key ykey) {
 	// ugh. need an index for axis stroke, so we cant just do a get.
 	// walk the filenames and get it, and the index for it
@@ -631,6 +776,10 @@ public class ECUxPlot extends ApplicationFrame implements SubActionListener, Fil
     }
 
     public void rebuild() {
+	// settings only reach the snapshots here, once an edit is committed
+	this.filter.refresh();
+	this.env.refresh();
+
 	if(this.chartPanel==null) return;
 
 	WaitCursor.startWaitCursor(this);
@@ -638,13 +787,35 @@ public class ECUxPlot extends ApplicationFrame implements SubActionListener, Fil
 	for(ECUxDataset data : this.fileDatasets.values())
 	    data.buildRanges();
 
+	redraw();
+
+	WaitCursor.stopWaitCursor(this);
+	this.setMyVisible(true);
+    }
+
+    /* the chart and FATS window, from the datasets' current ranges */
+    private void redraw() {
+	if(this.chartPanel==null) return;
+
 	if(this.fatsFrame!=null)
 	    this.fatsFrame.setDatasets(this.fileDatasets);
 
 	final XYPlot plot = this.chartPanel.getChart().getXYPlot();
+
+	// compute everything on the chart up front
+	final HashSet<String> ids = new HashSet<String>();
+	ids.add(this.xkey().toString());
 	for(int axis=0;axis<plot.getDatasetCount();axis++) {
 	    org.jfree.data.xy.XYDataset pds = plot.getDataset(axis);
-	    final DefaultXYDataset newdataset = new DefaultXYDataset();
+	    for(int series=0;series<pds.getSeriesCount();series++)
+		ids.add(((Dataset.Key)pds.getSeriesKey(series)).getString());
+	}
+	for(ECUxDataset data : this.fileDatasets.values())
+	    data.prefetch(ids);
+
+	for(int axis=0;axis<plot.getDatasetCount();axis++) {
+	    org.jfree.data.xy.XYDataset pds = plot.getDataset(axis);
+	    final ECUxXYDataset newdataset = new ECUxXYDataset();
 	    for(int series=0;series<pds.getSeriesCount();series++) {
 		Dataset.Key ykey = (Dataset.Key)pds.getSeriesKey(series);
 		addDataset(axis, newdataset, ykey);
@@ -652,15 +823,12 @@ public class ECUxPlot extends ApplicationFrame implements SubActionListener, Fil
 	    plot.setDataset(axis, newdataset);
 	}
 	updateXAxisLabel(plot);
-
-	WaitCursor.stopWaitCursor(this);
-	this.setMyVisible(true);
     }
 
     private void removeAllY() { this.removeAllY(0); this.removeAllY(1); }
     private void removeAllY(int axis) {
 	final XYPlot plot = this.chartPanel.getChart().getXYPlot();
-	ECUxChartFactory.removeDataset((DefaultXYDataset)plot.getDataset(axis));
+	ECUxChartFactory.removeDataset((ECUxXYDataset)plot.getDataset(axis));
 	this.yAxis[axis].uncheckAll();
     }
 
@@ -674,7 +842,7 @@ public class ECUxPlot extends ApplicationFrame implements SubActionListener, Fil
 	if(add && !(data.exists(ykey)) )
 	    return;
 	final XYPlot plot = this.chartPanel.getChart().getXYPlot();
-	DefaultXYDataset pds = (DefaultXYDataset)plot.getDataset(axis);
+	ECUxXYDataset pds = (ECUxXYDataset)plot.getDataset(axis);
 	if(add) {
 	    Dataset.Key key = data.new Key(data.getFileId(),
 		    ykey.toString());
@@ -846,9 +1014,22 @@ public class ECUxPlot extends ApplicationFrame implements SubActionListener, Fil
     }
 
     public static void main(final String[] args) {
+	final Options o = new Options(args);
+
+	// just render the chart, no need for a display
+	if(o.output!=null) {
+	    System.setProperty("java.awt.headless", "true");
+	    try {
+		ECUxBatch.render(o.files, o.preset, o.output, o.size);
+		System.exit(0);
+	    } catch (Exception e) {
+		e.printStackTrace();
+		System.exit(1);
+	    }
+	}
+
 	javax.swing.SwingUtilities.invokeLater(new Runnable() {
 	    public void run() {
-		final Options o = new Options(args);
 
 		// exit on close
 		final ECUxPlot plot = new ECUxPlot("ECUxPlot", o.size, true);
@@ -869,20 +1050,12 @@ public class ECUxPlot extends ApplicationFrame implements SubActionListener, Fil
 
 		plot.pack();
 		RefineryUtilities.centerFrameOnScreen(plot);
-		plot.loadFiles(o.files);
-
-		if(o.preset!=null)
-		    plot.loadPreset(o.preset);
-
-		if(o.output!=null) {
-		    try {
-			plot.pack();
-			plot.chartPanel.saveChartAsPNG(o.output);
-			System.exit(0);
-		    } catch (IOException e) {
-			e.printStackTrace();
+		plot.loadFiles(o.files, new Runnable() {
+		    public void run() {
+			if(o.preset!=null)
+			    plot.loadPreset(o.preset);
 		    }
-		}
+		});
 
 		plot.setMyVisible(true);
 	    }
@@ -0,0 +1,84 @@
+package org.nyet.ecuxplot;
+
+import java.util.ArrayList;
+
+import org.jfree.data.xy.AbstractXYDataset;
+
+import org.nyet.util.DoubleArray;
+
+/*
+ * Like DefaultXYDataset, but series are views on the dataset columns
+ * instead of copies.
+ */
+public class ECUxXYDataset extends AbstractXYDataset {
+    /**
+     *
+     */
+    private static final long serialVersionUID = 1L;
+    private ArrayList<Comparable<?>> keys = new ArrayList<Comparable<?>>();
+    private ArrayList<DoubleArray.View[]> series =
+	new ArrayList<DoubleArray.View[]>();
+
+    public int getSeriesCount() { return this.keys.size(); }
+
+    @SuppressWarnings("rawtypes")
+    public Comparable getSeriesKey(int series) {
+	if(series<0 || series>=this.keys.size())
+	    throw new IllegalArgumentException("Series index out of bounds");
+	return this.keys.get(series);
+    }
+
+    @SuppressWarnings("rawtypes")
+    public int indexOf(Comparable key) { return this.keys.indexOf(key); }
+
+    public int getItemCount(int series) {
+	return this.series.get(series)[0].size();
+    }
+
+    public double getXValue(int series, int item) {
+	return this.series.get(series)[0].get(item);
+    }
+    public Number getX(int series, int item) {
+	return Double.valueOf(getXValue(series, item));
+    }
+
+    public double getYValue(int series, int item) {
+	return this.series.get(series)[1].get(item);
+    }
+    public Number getY(int series, int item) {
+	return Double.valueOf(getYValue(series, item));
+    }
+
+    // replaces the series if the key is already there
+    public void addSeries(Comparable<?> key, DoubleArray.View x,
+	DoubleArray.View y) {
+	if(key==null)
+	    throw new IllegalArgumentException("The 'key' cannot be null.");
+	if(x==null || y==null)
+	    throw new IllegalArgumentException("The 'data' is null.");
+	if(x.size()!=y.size())
+	    throw new IllegalArgumentException(
+		"The x and y data must be the same length.");
+	final int i = this.keys.indexOf(key);
+	if(i<0) {
+	    this.keys.add(key);
+	    this.series.add(new DoubleArray.View[] {x, y});
+	} else {
+	    this.series.set(i, new DoubleArray.View[] {x, y});
+	}
+	fireDatasetChanged();
+    }
+
+    public void addSeries(Comparable<?> key, double[][] data) {
+	addSeries(key, new DoubleArray(data[0]).view(),
+	    new DoubleArray(data[1]).view());
+    }
+
+    public void removeSeries(Comparable<?> key) {
+	final int i = this.keys.indexOf(key);
+	if(i<0) return;
+	this.keys.remove(i);
+	this.series.remove(i);
+	fireDatasetChanged();
+    }
+}
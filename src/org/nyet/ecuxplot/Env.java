@@ -13,4 +13,11 @@ public class Env {
 	this.pid = new PID(prefs);
 	this.sae = new SAE(prefs);
     }
+
+    // pick up preference changes made behind our back (profile load, etc)
+    public void refresh() {
+	this.c.refresh();
+	this.f.refresh();
+	this.sae.refresh();
+    }
 }
@@ -0,0 +1,19 @@
+package org.nyet.ecuxplot;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+public class EvoScanFormat extends LogFormat {
+    public String getName() { return "evoscan"; }
+    public int getType() { return ECUxDataset.LOG_EVOSCAN; }
+
+    public boolean detect(LogSniffer s) {
+	return s.first().equals("LogID");
+    }
+
+    public String[][] parseHeaders(CSVReader reader, String[] h,
+	boolean detected, String fileId) throws Exception {
+	final String[] u = new String[h.length]; // no units :/
+	for(int i=0;i<h.length;i++) h[i]=alias(h[i]);
+	return new String[][] {h, u};
+    }
+}
@@ -29,6 +29,10 @@ public final class FileMenu extends JMenu {
 	item.addActionListener(listener);
 	this.add(item);
 
+	item = new JMenuItem("Open Stream...");
+	item.addActionListener(listener);
+	this.add(item);
+
 	this.add(new JSeparator());
 
 	item = new JMenuItem("New Chart");
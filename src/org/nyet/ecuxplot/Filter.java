@@ -20,9 +20,76 @@ public class Filter {
     private static final int defaultZeitMAW = 30; // zeitronix MAW 
     
     private Preferences prefs;
+    private volatile Snapshot snapshot;
+
+    /*
+     * The filter settings at one point in time.  Reading Preferences
+     * goes through a synchronized map, so code that loops over rows
+     * should grab a snapshot once and read its fields.  The setters
+     * only write the preferences, refresh() takes a new snapshot when an
+     * editor commits (ECUxPlot.rebuild()), and the version goes up if a
+     * setting actually changed.
+     */
+    public static final class Snapshot {
+	public final int version;
+	public final boolean enabled;
+	public final boolean showAllRanges;
+	public final boolean monotonicRPM;
+	public final int monotonicRPMfuzz;
+	public final int minRPM;
+	public final int maxRPM;
+	public final int minRPMRange;
+	public final int minPedal;
+	public final int minThrottle;
+	public final int gear;
+	public final int minPoints;
+	public final int HPTQMAW;
+	public final int ZeitMAW;
+
+	private Snapshot(Preferences p, int version) {
+	    this.version = version;
+	    this.enabled = p.getBoolean("enabled", defaultEnabled);
+	    this.showAllRanges = p.getBoolean("showAllRanges",
+		defaultShowAllRanges);
+	    this.monotonicRPM = p.getBoolean("monotonicRPM",
+		defaultMonotonicRPM);
+	    this.monotonicRPMfuzz = p.getInt("monotonicRPMfuzz",
+		defaultMonotonicRPMfuzz);
+	    this.minRPM = p.getInt("minRPM", defaultMinRPM);
+	    this.maxRPM = p.getInt("maxRPM", defaultMaxRPM);
+	    this.minRPMRange = p.getInt("minRPMRange", defaultMinRPMRange);
+	    this.minPedal = p.getInt("minPedal", defaultMinPedal);
+	    this.minThrottle = p.getInt("minThrottle", defaultMinThrottle);
+	    this.gear = p.getInt("gear", defaultGear);
+	    this.minPoints = p.getInt("minPoints", defaultMinPoints);
+	    this.HPTQMAW = p.getInt("HPTQMAW", defaultHPTQMAW);
+	    this.ZeitMAW = p.getInt("ZeitMAW", defaultZeitMAW);
+	}
+
+	private boolean same(Snapshot o) {
+	    return o.enabled==enabled && o.showAllRanges==showAllRanges &&
+		o.monotonicRPM==monotonicRPM &&
+		o.monotonicRPMfuzz==monotonicRPMfuzz &&
+		o.minRPM==minRPM && o.maxRPM==maxRPM &&
+		o.minRPMRange==minRPMRange && o.minPedal==minPedal &&
+		o.minThrottle==minThrottle && o.gear==gear &&
+		o.minPoints==minPoints && o.HPTQMAW==HPTQMAW &&
+		o.ZeitMAW==ZeitMAW;
+	}
+    }
 
     public Filter (Preferences prefs) {
 	this.prefs = prefs.node(PREFS_TAG);
+	this.snapshot = new Snapshot(this.prefs, 0);
+    }
+
+    public Snapshot snapshot() { return this.snapshot; }
+    public int version() { return this.snapshot.version; }
+
+    // re-read the preferences, bumps the version if anything changed
+    public synchronized void refresh() {
+	final Snapshot s = new Snapshot(this.prefs, this.snapshot.version+1);
+	if(!s.same(this.snapshot)) this.snapshot = s;
     }
 
     public static boolean enabled(Preferences prefs) {
@@ -30,7 +97,7 @@ public class Filter {
     }
  
     public boolean enabled() {
-	return this.prefs.getBoolean("enabled", defaultEnabled);
+	return this.snapshot.enabled;
     }
     public void enabled(boolean val) {
 	this.prefs.putBoolean("enabled", val);
@@ -43,83 +110,83 @@ public class Filter {
     }
     
     public boolean showAllRanges() {
-    return this.prefs.getBoolean("showAllRanges", defaultShowAllRanges);
+    return this.snapshot.showAllRanges;
     }
     public void showAllRanges(boolean val) {
     this.prefs.putBoolean("showAllRanges", val);
     }
 
     public boolean monotonicRPM() {
-	return this.prefs.getBoolean("monotonicRPM", defaultMonotonicRPM);
+	return this.snapshot.monotonicRPM;
     }
     public void monotonicRPM(boolean val) {
 	this.prefs.putBoolean("monotonicRPM", val);
     }
 
     public int monotonicRPMfuzz() {
-	return this.prefs.getInt("monotonicRPMfuzz", defaultMonotonicRPMfuzz);
+	return this.snapshot.monotonicRPMfuzz;
     }
     public void monotonicRPMfuzz(Integer val) {
 	this.prefs.putInt("monotonicRPMfuzz", val);
     }
 
     public int minRPM() {
-	return this.prefs.getInt("minRPM", defaultMinRPM);
+	return this.snapshot.minRPM;
     }
     public void minRPM(Integer val) {
 	this.prefs.putInt("minRPM", val);
     }
 
     public int maxRPM() {
-	return this.prefs.getInt("maxRPM", defaultMaxRPM);
+	return this.snapshot.maxRPM;
     }
     public void maxRPM(Integer val) {
 	this.prefs.putInt("maxRPM", val);
     }
 
     public int minRPMRange() {
-	return this.prefs.getInt("minRPMRange", defaultMinRPMRange);
+	return this.snapshot.minRPMRange;
     }
     public void minRPMRange(Integer val) {
 	this.prefs.putInt("minRPMRange", val);
     }
     public int minPedal() {
-	return this.prefs.getInt("minPedal", defaultMinPedal);
+	return this.snapshot.minPedal;
     }
     public void minPedal(Integer val) {
 	this.prefs.putInt("minPedal", val);
     }
 
     public int minThrottle() {
-	return this.prefs.getInt("minThrottle", defaultMinThrottle);
+	return this.snapshot.minThrottle;
     }
     public void minThrottle(Integer val) {
 	this.prefs.putInt("minThrottle", val);
     }
 
     public int gear() {
-	return this.prefs.getInt("gear", defaultGear);
+	return this.snapshot.gear;
     }
     public void gear(Integer val) {
 	this.prefs.putInt("gear", val);
     }
 
     public int minPoints() {
-	return this.prefs.getInt("minPoints", defaultMinPoints);
+	return this.snapshot.minPoints;
     }
     public void minPoints(Integer val) {
 	this.prefs.putInt("minPoints", val);
     }
 
     public int HPTQMAW() {
-	return this.prefs.getInt("HPTQMAW", defaultHPTQMAW);
+	return this.snapshot.HPTQMAW;
     }
     public void HPTQMAW(Integer val) {
 	this.prefs.putInt("HPTQMAW", val);
     }
 
     public int ZeitMAW() {
-	return this.prefs.getInt("ZeitMAW", defaultZeitMAW);
+	return this.snapshot.ZeitMAW;
     }
     public void ZeitMAW(Integer val) {
 	this.prefs.putInt("ZeitMAW", val);
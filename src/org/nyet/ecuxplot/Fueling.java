@@ -11,13 +11,50 @@ public class Fueling {
     private static final int defaultCylinders = 6;
     private static final int defaultTurbos = 2;
     private Preferences prefs;
+    private volatile Snapshot snapshot;
+
+    /* current values, read these in loops.  See Filter.Snapshot */
+    public static final class Snapshot {
+	public final int version;
+	public final double MAF;
+	public final double injector;
+	public final double MAF_offset;
+	public final int cylinders;
+	public final int turbos;
+
+	private Snapshot(Preferences p, int version) {
+	    this.version = version;
+	    this.MAF = p.getDouble("MAF", defaultMAF);
+	    this.injector = p.getDouble("injector", defaultInjector);
+	    this.MAF_offset = p.getDouble("MAF_offset", defaultMAF_offset);
+	    this.cylinders = p.getInt("cylinders", defaultCylinders);
+	    this.turbos = p.getInt("turbos", defaultTurbos);
+	}
+
+	private boolean same(Snapshot o) {
+	    return o.MAF==MAF &&
+		o.injector==injector &&
+		o.MAF_offset==MAF_offset &&
+		o.cylinders==cylinders &&
+		o.turbos==turbos;
+	}
+    }
 
     public Fueling(Preferences prefs) {
 	this.prefs = prefs.node(PREFS_TAG);
+	this.snapshot = new Snapshot(this.prefs, 0);
+    }
+
+    public Snapshot snapshot() { return this.snapshot; }
+    public int version() { return this.snapshot.version; }
+
+    public synchronized void refresh() {
+	final Snapshot s = new Snapshot(this.prefs, this.snapshot.version+1);
+	if(!s.same(this.snapshot)) this.snapshot = s;
     }
 
     public double MAF() {
-	return prefs.getDouble("MAF", defaultMAF);
+	return this.snapshot.MAF;
     }
     public void MAF(double val) {
 	prefs.putDouble("MAF", val);
@@ -28,25 +65,25 @@ public class Fueling {
     }
 
     public double injector() {
-	return prefs.getDouble("injector", defaultInjector);
+	return this.snapshot.injector;
     }
     public void injector(double val) {
 	prefs.putDouble("injector", val);
     }
     public double MAF_offset() {
-	return prefs.getDouble("MAF_offset", defaultMAF_offset);
+	return this.snapshot.MAF_offset;
     }
     public void MAF_offset(double val) {
 	prefs.putDouble("MAF_offset", val);
     }
     public int cylinders() {
-	return prefs.getInt("cylinders", defaultCylinders);
+	return this.snapshot.cylinders;
     }
     public void cylinders(int val) {
 	prefs.putInt("cylinders", val);
     }
     public int turbos() {
-	return prefs.getInt("turbos", defaultTurbos);
+	return this.snapshot.turbos;
     }
     public void turbos(int val) {
 	prefs.putInt("turbos", val);
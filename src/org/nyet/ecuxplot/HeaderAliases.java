@@ -0,0 +1,254 @@
+package org.nyet.ecuxplot;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.nyet.util.Locate;
+
+/*
+ * Header and units aliases for each log format, compiled once.  Rules
+ * are tried in the order they were added and the first that matches the
+ * whole name wins.  Exact names are still a HashMap lookup: only the
+ * patterns added before an exact hit are tried ahead of it.
+ *
+ * More rules can be added without a rebuild in profiles/aliases.txt, in
+ * the install directory or in the user's ECUxPlot data directory:
+ *
+ *	[me7logger]
+ *	EngineSpeedRaw		RPM
+ *	/Lambda.*Bank1/		AirFuelRatioCurrent
+ *
+ * Fields are separated by tabs, a name in slashes is a regex.  Rules from
+ * the user's file come first, then the install's, then the built in ones,
+ * so any of them can be overridden.  The "units" section is the default
+ * units of a column, "<format> units" rewrites the units a log gave.
+ */
+public class HeaderAliases {
+    public static final String FILE = "aliases.txt";
+
+    private static final String[] BUILTIN = {
+	"[vcds]",
+	"/Engine [Ss]peed.*/	RPM",
+	"/Throttle [Aa]ngle.*/	Throttle Angle",
+	"/Mass [Aa]ir [Ff]low.*/	MassAirFlow",
+	"Mass Flow	MassAirFlow",
+	"/Ign timing.*/	Ignition Timing Angle",
+
+	"[zeitronix]",
+	"Time	Zeitronix Time",
+	"/.*RPM/	RPM",
+	"/.*Boost/	Zeitronix Boost",
+	"/.*TPS/	Zeitronix TPS",
+	"/.*AFR/	Zeitronix AFR",
+	"/.*Lambda/	Zeitronix Lambda",
+	"/.*EGT/	Zeitronix EGT",
+
+	"[evoscan]",
+	"LogEntrySeconds	TIME",
+	"TPS	ThrottlePlateAngle",
+	"APP	AccelPedalPosition",
+	"IAT	IntakeAirTemperature",
+	"/.*RPM/	RPM",
+
+	"[me7logger]",
+	"BoostPressureSpecified	BoostPressureDesired",
+	"AtmosphericPressure	BaroPressure",
+	"AirFuelRatioRequired	AirFuelRatioDesired",
+	"InjectionTime	EffFuelInjectonTime",	// is this te or ti? Assume te?
+	"InjectionTimeBank2	EffFuelInjectonTimeBank2",
+	"/Engine[Ss]peed.*/	RPM",
+
+	"[default]",
+	"Time	TIME",
+	"Mass air flow	MassAirFlow",
+	"/Engine [Ss]peed.*/	RPM",
+
+	"[me7logger units]",
+	"mbar	mBar",
+	"[zeitronix units]",
+	"/PSI/.*/	PSI",
+	"[ecux units]",
+	"/PSI/.*/	PSI",
+	"[default units]",
+	"/PSI/.*/	PSI",
+
+	"[units]",
+	"AcceleratorPedalPosition	%",
+	"AirFuelRatioDesired	lambda",
+	"BaroPressure	mBar",
+	"BatteryVoltage	V",
+	"BoostFrequencyValveDutyCycle	%",
+	"BoostPressureActual	mBar",
+	"BoostPressureDesired	mBar",
+	"EGTbank1	degrees F",
+	"EGTbank1OXS	degrees C",
+	"EGTbank2	degrees F",
+	"EGTbank2OXS	degrees C",
+	"EngineLoad	%",
+	"EngineLoadCorrectedSpecified	%",
+	"EngineLoadDesired	%",
+	"EngineLoadSpecified	%",
+	"FuelInjectorOnTime	ms",
+	"FuelInjectorDutyCycle	%",
+	"IgnitionRetardCyl1	degrees",
+	"IgnitionRetardCyl2	degrees",
+	"IgnitionRetardCyl3	degrees",
+	"IgnitionRetardCyl4	degrees",
+	"IgnitionRetardCyl5	degrees",
+	"IgnitionRetardCyl6	degrees",
+	"IgnitionRetardAvg	degrees",
+	"IgnitionTimingCyl1	degrees",
+	"IgnitionTimingCyl2	degrees",
+	"IgnitionTimingCyl3	degrees",
+	"IgnitionTimingCyl4	degrees",
+	"IgnitionTimingCyl5	degrees",
+	"IgnitionTimingCyl6	degrees",
+	"IgnitionTimingAngleOverall	degrees",
+	"IntakeAirTemperature	degrees F",
+	"KnockVoltCyl1	V",
+	"KnockVoltCyl2	V",
+	"KnockVoltCyl3	V",
+	"KnockVoltCyl4	V",
+	"KnockVoltCyl5	V",
+	"KnockVoltCyl6	V",
+	"MassAirFlow	g/sec",
+	"OXSVoltS1B1	V",
+	"OXSVoltS1B2	V",
+	"ThrottlePlateAngle	%",
+	"TPS	%",
+	"VehicleSpeed	mph",
+	"RPM	1/min",
+	"Time	s",
+	"Zeitronix TPS	%",
+	"Zeitronix AFR	AFR",
+	"Zeitronix Lambda	lambda",
+	"Zeitronix Time	s",
+    };
+
+    private static class Rules {
+	private final HashMap<String, String> exact =
+	    new HashMap<String, String>();
+	private final HashMap<String, Integer> exactOrder =
+	    new HashMap<String, Integer>();
+	private final ArrayList<Pattern> patterns = new ArrayList<Pattern>();
+	private final ArrayList<Integer> order = new ArrayList<Integer>();
+	private final ArrayList<String> to = new ArrayList<String>();
+	private int added = 0;
+
+	private String find(String name) {
+	    final String s = this.exact.get(name);
+	    final int before = s==null?Integer.MAX_VALUE:this.exactOrder.get(name);
+	    for(int i=0;i<this.patterns.size() && this.order.get(i)<before;i++)
+		if(this.patterns.get(i).matcher(name).matches())
+		    return this.to.get(i);
+	    return s;
+	}
+    }
+
+    private final HashMap<String, Rules> sections =
+	new HashMap<String, Rules>();
+    private final StringBuilder stamp = new StringBuilder();
+
+    private static HeaderAliases instance;
+
+    public static synchronized HeaderAliases getDefault() {
+	if(instance==null) {
+	    final HeaderAliases a = new HeaderAliases();
+	    a.load(new File(new File(Locate.getDataDirectory("ECUxPlot"),
+		"profiles"), FILE));
+	    try {
+		a.load(new File(new File(
+		    Locate.getClassDirectory(HeaderAliases.class), "profiles"),
+		    FILE));
+	    } catch (IOException e) {
+		// no install directory, just the built in rules
+	    }
+	    a.add(BUILTIN, "built in");
+	    instance = a;
+	}
+	return instance;
+    }
+
+    /* rules added earlier win, exact names and patterns alike */
+    public void add(String section, String from, String to)
+	throws PatternSyntaxException {
+	Rules r = this.sections.get(section);
+	if(r==null) {
+	    r = new Rules();
+	    this.sections.put(section, r);
+	}
+	if(from.length()>1 && from.startsWith("/") && from.endsWith("/")) {
+	    r.patterns.add(Pattern.compile(from.substring(1, from.length()-1)));
+	    r.order.add(r.added++);
+	    r.to.add(to);
+	} else if(!r.exact.containsKey(from)) {
+	    r.exact.put(from, to);
+	    r.exactOrder.put(from, r.added++);
+	}
+    }
+
+    private void add(String[] lines, String source) {
+	String section = "default";
+	for(int i=0;i<lines.length;i++) {
+	    final String l = lines[i].trim();
+	    if(l.length()==0 || l.startsWith("#")) continue;
+	    if(l.startsWith("[") && l.endsWith("]")) {
+		section = l.substring(1, l.length()-1).trim();
+		continue;
+	    }
+	    final String[] f = l.split("\t+");
+	    try {
+		if(f.length!=2) throw new Exception("expected name<tab>alias");
+		add(section, f[0], f[1]);
+	    } catch (Exception e) {
+		System.err.println(source + ":" + (i+1) + ": " + e.getMessage());
+	    }
+	}
+    }
+
+    public void load(File f) {
+	if(!f.isFile()) return;
+	final ArrayList<String> lines = new ArrayList<String>();
+	try {
+	    final BufferedReader in = new BufferedReader(
+		new InputStreamReader(new FileInputStream(f), "UTF-8"));
+	    try {
+		String l;
+		while((l = in.readLine())!=null) lines.add(l);
+	    } finally {
+		in.close();
+	    }
+	} catch (IOException e) {
+	    System.err.println(f + ": " + e.getMessage());
+	    return;
+	}
+	add(lines.toArray(new String[lines.size()]), f.toString());
+	this.stamp.append(f + ":" + f.length() + ":" + f.lastModified() + ";");
+    }
+
+    /* changes when a file the rules came from does */
+    public String getStamp() { return this.stamp.toString(); }
+
+    /* the alias for name in section, or null */
+    public String find(String section, String name) {
+	final Rules r = this.sections.get(section);
+	return r==null?null:r.find(name);
+    }
+
+    public String header(String format, String h) {
+	final String s = find(format, h);
+	return s==null?h:s;
+    }
+
+    public String units(String format, String u) {
+	final String s = find(format + " units", u);
+	return s==null?u:s;
+    }
+}
@@ -0,0 +1,211 @@
+package org.nyet.ecuxplot;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.prefs.Preferences;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+/*
+ * A log streamed over a local TCP socket ("host:port", or just ":port"
+ * for localhost) or read from a named pipe.  The header block comes
+ * first, exactly as it would be in a file, then one record per line.
+ *
+ * A thread reads records into a queue, tail() appends whatever has
+ * queued up, so ECUxPlot follows a stream the same way it follows a
+ * file.  Only the newest getCapacity() rows are kept: once there are a
+ * quarter more than that, the oldest are dropped, so memory stays flat
+ * however long the stream runs.
+ *
+ * Runs are also tracked as the rows come in.  A run is closed once a
+ * row after it fails the filter and is older than the last LOOKBACK
+ * rows (those may still change as smoothing sees more), and if it
+ * passes rangeValid() the PullListeners are told about it.
+ */
+public class LiveDataset extends ECUxDataset {
+    private static final Pattern HOSTPORT = Pattern.compile("([\\w.-]*):(\\d+)");
+    private static final int QUEUE = 4096;	// records, the reader waits if full
+
+    public interface PullListener {
+	/* r is in the dataset's current row numbers */
+	public void pull(LiveDataset d, Range r);
+    }
+
+    private final int capacity;
+    private final BlockingQueue<String[]> queue =
+	new ArrayBlockingQueue<String[]>(QUEUE);
+    private volatile String error;	// why the reader stopped
+    private boolean followed = true;
+    private final InputStream in;
+    private final Thread thread;
+    private final ArrayList<PullListener> listeners =
+	new ArrayList<PullListener>();
+
+    private int scanned = 0;	// rows the run tracker has looked at
+    private int runStart = -1;	// first row of the open run
+    private long dropped = 0;	// rows forgotten so far
+
+    public LiveDataset(String source, Env env, Filter filter, int capacity)
+	    throws Exception {
+	this(source, open(source), env, filter, capacity);
+    }
+
+    private LiveDataset(String source, InputStream in, Env env,
+	    Filter filter, int capacity) throws Exception {
+	this(source, in, new CSVReader(new InputStreamReader(in)), env,
+	    filter, capacity);
+    }
+
+    private LiveDataset(String source, InputStream in,
+	    final CSVReader reader, Env env, Filter filter, int capacity)
+	    throws Exception {
+	super(source, reader, env, filter);
+	this.capacity = capacity;
+	this.in = in;
+
+	this.thread = new Thread(new Runnable() {
+	    public void run() {
+		try {
+		    String[] r;
+		    while((r = reader.readNext())!=null) queue.put(r);
+		    if(error==null) error = "stream ended";
+		} catch (Exception e) {
+		    if(error==null) error = e.toString();
+		}
+	    }
+	}, "live-" + source);
+	this.thread.setDaemon(true);
+	this.thread.start();
+    }
+
+    /*
+     * Hangs up and stops the reader.  A reader blocked on a pipe may only
+     * notice once the writer sends more or goes away.
+     */
+    public void close() {
+	this.error = "closed";
+	this.thread.interrupt();
+	try {
+	    this.in.close();
+	} catch (Exception e) {
+	    // gone already
+	}
+    }
+
+    private static InputStream open(String source) throws Exception {
+	final Matcher m = HOSTPORT.matcher(source);
+	if(!m.matches()) return new FileInputStream(source);
+	final String host = m.group(1).length()>0?m.group(1):"localhost";
+	return new Socket(host, Integer.parseInt(m.group(2))).getInputStream();
+    }
+
+    /* rows kept, from prefs */
+    public static int capacity(Preferences prefs) {
+	return prefs.getInt("streamRows", 100000);
+    }
+
+    public int getCapacity() { return this.capacity; }
+
+    /* rows dropped so far, add it to a row number to count from the start */
+    public long getDropped() { return this.dropped; }
+
+    public void addPullListener(PullListener l) { this.listeners.add(l); }
+
+    public boolean isFollowed() { return this.followed; }
+
+    public void unfollow() {
+	this.followed = false;
+	super.unfollow();
+    }
+
+    /* appends what the reader has queued, throws once the stream is gone */
+    public int tail() throws Exception {
+	final ArrayList<String[]> batch = new ArrayList<String[]>();
+	this.queue.drainTo(batch);
+	if(batch.isEmpty()) {
+	    if(this.error!=null)
+		throw new Exception(getFileId() + ": " + this.error);
+	    return 0;
+	}
+
+	int from = length();
+	for(String[] r : batch) append(r);
+	final int over = length()-this.capacity;
+	if(over>this.capacity/4) {
+	    drop(over);
+	    from = Math.max(0, from-over);
+	}
+	appended(from);
+	buildRanges();
+	track();
+	return batch.size();
+    }
+
+    protected void dropped(int n) {
+	super.dropped(n);
+	this.dropped += n;
+	this.scanned = Math.max(0, this.scanned-n);
+	if(this.runStart>=0) this.runStart = Math.max(0, this.runStart-n);
+    }
+
+    /* closes the runs that ended in rows that won't change any more */
+    private void track() {
+	final int settled = length()-LOOKBACK;
+	if(this.scanned>=settled) return;
+	final BitSet valid = validRows();
+	for(int i=this.scanned;i<settled;i++) {
+	    if(valid.get(i)) {
+		if(this.runStart<0) this.runStart = i;
+	    } else if(this.runStart>=0) {
+		final Range r = new Range(this.runStart, i-1);
+		this.runStart = -1;
+		if(rangeValid(r))
+		    for(PullListener l : this.listeners) l.pull(this, r);
+	    }
+	}
+	this.scanned = settled;
+    }
+
+    /* prints each pull as it finishes */
+    public static void main(String[] args) throws Exception {
+	if(args.length!=1) {
+	    System.err.println("usage: LiveDataset host:port|:port|pipe");
+	    System.exit(1);
+	}
+	final Preferences prefs = ECUxPlot.getPreferences();
+	final LiveDataset d = new LiveDataset(args[0], new Env(prefs),
+	    new Filter(prefs), capacity(prefs));
+	d.addPullListener(new PullListener() {
+	    public void pull(LiveDataset d, Range r) {
+		final Column rpm = d.get("RPM"), time = d.get("TIME");
+		if(rpm==null || time==null) {
+		    System.out.println("pull rows " + (d.getDropped()+r.start) +
+			"-" + (d.getDropped()+r.end));
+		    return;
+		}
+		System.out.println(String.format(
+		    "pull rows %d-%d: %.0f-%.0f RPM in %.2f s",
+		    d.getDropped()+r.start, d.getDropped()+r.end,
+		    rpm.data.get(r.start), rpm.data.get(r.end),
+		    time.data.get(r.end)-time.data.get(r.start)));
+	    }
+	});
+	while(true) {
+	    try {
+		d.tail();
+	    } catch (Exception e) {
+		System.err.println(e.getMessage());
+		break;
+	    }
+	    Thread.sleep(250);
+	}
+    }
+}
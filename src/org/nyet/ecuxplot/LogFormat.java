@@ -0,0 +1,107 @@
+package org.nyet.ecuxplot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+/*
+ * A kind of log ECUxDataset can read.  detect() looks at the start of
+ * the file, parseHeaders() reads the rest of the header and returns the
+ * column ids and units, renamed through the HeaderAliases section named
+ * by getName().
+ *
+ * The built in formats are tried first, then any listed in
+ * META-INF/services/org.nyet.ecuxplot.LogFormat on the class path, then
+ * the default, which takes any CSV file with a header.
+ */
+public abstract class LogFormat {
+    private static final Pattern UNITS =
+	Pattern.compile("([\\w\\s]+)\\(([\\w\\s].*)\\)");
+
+    private static List<LogFormat> formats;
+
+    /* also the HeaderAliases section */
+    public abstract String getName();
+
+    /* one of ECUxDataset.LOG_*, for a format of its own LOG_UNKNOWN */
+    public int getType() { return ECUxDataset.LOG_UNKNOWN; }
+
+    /* the log's time column divided by this is seconds */
+    public double getTicksPerSecond() { return 1; }
+
+    public abstract boolean detect(LogSniffer s);
+
+    /*
+     * h is the first record that isn't blank or a comment.  detected is
+     * false if the caller asked for this format but the file's header
+     * doesn't look like one.  Returns { ids, units }, units may be null
+     * or empty where the log has none.
+     */
+    public abstract String[][] parseHeaders(CSVReader reader, String[] h,
+	boolean detected, String fileId) throws Exception;
+
+    protected String alias(String h) {
+	return HeaderAliases.getDefault().header(getName(), h);
+    }
+
+    protected String units(String u) {
+	return HeaderAliases.getDefault().units(getName(), u);
+    }
+
+    /* splits "name (units)" headers */
+    protected String[] parseUnits(String[] h) {
+	final String[] u = new String[h.length];
+	final Matcher matcher = UNITS.matcher("");
+	for(int i=0;i<h.length;i++) {
+	    h[i]=h[i].trim();
+	    matcher.reset(h[i]);
+	    if(matcher.find()) {
+		h[i]=matcher.group(1);
+		u[i]=units(matcher.group(2));
+	    }
+	}
+	return u;
+    }
+
+    public String toString() { return getName(); }
+
+    public static synchronized List<LogFormat> getFormats() {
+	if(formats==null) {
+	    final ArrayList<LogFormat> l = new ArrayList<LogFormat>();
+	    l.add(new VCDSFormat());
+	    l.add(new ZeitronixFormat());
+	    l.add(new ECUxFormat());
+	    l.add(new ME7LoggerFormat());
+	    l.add(new EvoScanFormat());
+	    try {
+		for(LogFormat f: ServiceLoader.load(LogFormat.class)) l.add(f);
+	    } catch (ServiceConfigurationError e) {
+		System.err.println(e.getMessage());
+	    }
+	    l.add(new DefaultFormat());
+	    formats = l;
+	}
+	return formats;
+    }
+
+    /* the first format that takes it, null if none do */
+    public static LogFormat find(LogSniffer s) {
+	if(!s.isText() || s.getFirst()==null) return null;
+	for(LogFormat f: getFormats())
+	    if(f.detect(s)) return f;
+	return null;
+    }
+
+    /* the default format if no other has that type */
+    public static LogFormat forType(int type) {
+	final List<LogFormat> l = getFormats();
+	for(LogFormat f: l)
+	    if(f.getType()==type) return f;
+	return l.get(l.size()-1);
+    }
+}
@@ -0,0 +1,211 @@
+package org.nyet.ecuxplot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.prefs.Preferences;
+
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import org.nyet.logfile.Dataset;
+import org.nyet.logfile.MMapCSVReader;
+import org.nyet.util.Files;
+import org.nyet.util.Strings;
+
+/*
+ * Streams an existing log, gzipped or not, to a LiveDataset, for testing
+ * without a car.  The header block goes out at once, then each record
+ * when its TIME comes up, sped up -x times.  Lines are sent as they are
+ * in the file.
+ *
+ * The target is a port to listen on (loopback only, one client) or a
+ * named pipe to write to.
+ */
+public class LogReplay {
+    private static class ReplayOptions extends Options {
+	private static final long serialVersionUID = 1L;
+
+	double speed = 1;
+	boolean loop = false;
+	String target = null;
+	String file = null;
+
+	@SuppressWarnings("static-access")
+	public ReplayOptions() {
+	    Option x = OptionBuilder.withArgName("speed").hasArg()
+		.withDescription("Play back this many times faster (default 1)")
+		.create('x');
+	    Option l = new Option("l", "Start over at the end, until killed");
+	    this.addOption(x);
+	    this.addOption(l);
+	}
+
+	public void Parse(String args[]) throws ParseException {
+	    CommandLine line = new BasicParser().parse(this, args);
+
+	    if (line.hasOption('x')) {
+		try {
+		    this.speed = Double.valueOf(line.getOptionValue("x"));
+		} catch (NumberFormatException e) {
+		    throw new ParseException("bad speed");
+		}
+		if (!(this.speed>0)) throw new ParseException("bad speed");
+	    }
+
+	    if (line.hasOption('l'))
+		this.loop = true;
+
+	    final String[] rest = line.getArgs();
+	    if (rest.length != 2)
+		throw new ParseException("need a port or pipe, and a log");
+	    this.target = rest[0];
+	    this.file = rest[1];
+	}
+    }
+
+    private final String[] header;
+    private final String[] records;
+    private final double[] time;	// seconds, one per record
+
+    public LogReplay(String file) throws Exception {
+	final Preferences prefs = ECUxPlot.getPreferences();
+	final String path = new File(file).getAbsolutePath();
+	final ECUxDataset d = new ECUxDataset(path, new Env(prefs),
+	    new Filter(prefs));
+
+	// the same bytes the reader sees, inflated if need be
+	final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	final InputStream in = Files.open(file);
+	try {
+	    final byte[] b = new byte[1<<16];
+	    int len;
+	    while((len = in.read(b))>0) bytes.write(b, 0, len);
+	} finally {
+	    in.close();
+	}
+	final byte[] text = bytes.toByteArray();
+
+	// the header block is whatever the dataset's header parse reads,
+	// each record after it is as many lines as the csv parser took
+	final MMapCSVReader r = new MMapCSVReader(path);
+	final ArrayList<String> records = new ArrayList<String>();
+	try {
+	    new ECUxDataset(path, r, new Env(prefs), new Filter(prefs));
+	    this.header = lines(text, 0, (int)r.position());
+	    int from = (int)r.position();
+	    while(r.readNext()!=null) {
+		final int to = (int)r.position();
+		final String[] l = lines(text, from, to);
+		if(l.length>1 || l[0].trim().length()>0)
+		    records.add(Strings.join("\n", l));
+		from = to;
+	    }
+	} finally {
+	    r.close();
+	}
+	this.records = records.toArray(new String[0]);
+	final int n = this.records.length;
+
+	this.time = new double[n];
+	final Dataset.Column t = d.get("TIME");
+	final double rate = d.samples_per_sec>0?d.samples_per_sec:20;
+	for(int i=0;i<n;i++) {
+	    if(t!=null && t.data.size()==n) this.time[i] = t.data.get(i);
+	    else this.time[i] = i/rate;
+	}
+    }
+
+    /* text[from, to) split like BufferedReader.readLine() */
+    private static String[] lines(byte[] text, int from, int to) {
+	final ArrayList<String> out = new ArrayList<String>();
+	int start = from;
+	for(int i=from;i<to;i++) {
+	    if(text[i]!='\n' && text[i]!='\r') continue;
+	    out.add(new String(text, start, i-start));
+	    if(text[i]=='\r' && i+1<to && text[i+1]=='\n') i++;
+	    start = i+1;
+	}
+	if(start<to) out.add(new String(text, start, to-start));
+	return out.toArray(new String[0]);
+    }
+
+    public void play(OutputStream os, double speed) throws Exception {
+	final PrintWriter out = new PrintWriter(new OutputStreamWriter(os));
+	for(String l : this.header) out.println(l);
+	out.flush();
+
+	final long start = System.nanoTime();
+	for(int i=0;i<this.records.length;i++) {
+	    final long due = (long)((this.time[i]-this.time[0])/speed*1e9);
+	    final long wait = due-(System.nanoTime()-start);
+	    if(wait>0) {
+		out.flush();
+		Thread.sleep(wait/1000000, (int)(wait%1000000));
+	    }
+	    out.println(this.records[i]);
+	    if(out.checkError()) throw new Exception("reader went away");
+	}
+	out.flush();
+    }
+
+    public static void main(final String[] args) {
+	final ReplayOptions o = new ReplayOptions();
+	try {
+	    o.Parse(args);
+	} catch (ParseException e) {
+	    System.err.println(e.getMessage());
+	    new HelpFormatter().printHelp(
+		"LogReplay [options] port|pipe log", o);
+	    System.exit(1);
+	}
+
+	try {
+	    final LogReplay r = new LogReplay(o.file);
+	    System.err.println(String.format("%s: %d records, %.1f s",
+		o.file, r.records.length,
+		r.records.length>0?r.time[r.time.length-1]-r.time[0]:0));
+	    do {
+		if(o.target.matches("\\d+")) {
+		    final ServerSocket ss = new ServerSocket(
+			Integer.parseInt(o.target), 1,
+			InetAddress.getByName(null));
+		    final Socket s;
+		    try {
+			s = ss.accept();
+		    } finally {
+			ss.close();
+		    }
+		    try {
+			r.play(s.getOutputStream(), o.speed);
+		    } finally {
+			s.close();
+		    }
+		} else {
+		    final OutputStream out = new FileOutputStream(o.target);
+		    try {
+			r.play(out, o.speed);
+		    } finally {
+			out.close();
+		    }
+		}
+	    } while(o.loop);
+	} catch (Exception e) {
+	    System.err.println(e.getMessage());
+	    System.exit(1);
+	}
+    }
+}
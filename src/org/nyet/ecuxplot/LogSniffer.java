@@ -0,0 +1,130 @@
+package org.nyet.ecuxplot;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import au.com.bytecode.opencsv.CSVParser;
+
+import org.nyet.util.Files;
+
+/*
+ * A look at the start of a log, for LogFormat.detect().  Only the first
+ * PREFIX bytes are mapped (or inflated, if it is gzipped), so a file that
+ * isn't a log at all is turned away before anything reads it as CSV.
+ *
+ * getFirst() is the record ParseHeaders starts from: the first one that
+ * isn't blank or a # comment, split the way CSVReader splits it.
+ */
+public class LogSniffer {
+    public static final int PREFIX = 8192;
+    private static final Pattern COMMENT = Pattern.compile("^#.+");
+
+    private final ArrayList<String> lines = new ArrayList<String>();
+    private boolean text = true;
+    private boolean complete = true;	// the whole file fit in the prefix
+    private String[] first;
+
+    public LogSniffer(String filename) throws Exception {
+	final File f = new File(filename);
+	if(!f.isFile()) throw new Exception(filename + ": no such file");
+
+	final ByteBuffer b;
+	if(Files.isGzip(filename)) {
+	    // inflate just enough for the prefix
+	    final byte[] a = new byte[PREFIX];
+	    int n = 0, r = 0;
+	    final InputStream in = Files.open(filename);
+	    try {
+		while(n<PREFIX && (r = in.read(a, n, PREFIX-n))>=0) n += r;
+		this.complete = r<0 || in.read()<0;
+	    } finally {
+		in.close();
+	    }
+	    b = ByteBuffer.wrap(a, 0, n);
+	} else {
+	    final FileInputStream in = new FileInputStream(f);
+	    try {
+		final FileChannel ch = in.getChannel();
+		final long n = Math.min(ch.size(), PREFIX);
+		this.complete = n==ch.size();
+		b = ch.map(FileChannel.MapMode.READ_ONLY, 0, n);
+	    } finally {
+		in.close();
+	    }
+	}
+
+	// split it into lines like BufferedReader.readLine() does
+	final Charset cs = Charset.defaultCharset();
+	final int limit = b.limit();
+	int p = 0;
+	while(p<limit) {
+	    int end = p;
+	    for(; end<limit; end++) {
+		final byte c = b.get(end);
+		if(c==0) {
+		    this.text = false;
+		    return;
+		}
+		if(c=='\n' || c=='\r') break;
+	    }
+	    // the last line may be cut short, unless the file ends there
+	    final byte[] l = new byte[end-p];
+	    for(int i=0;i<l.length;i++) l[i]=b.get(p+i);
+	    this.lines.add(new String(l, cs));
+	    if(end<limit && b.get(end)=='\r') end++;
+	    if(end<limit && b.get(end)=='\n') end++;
+	    p = end;
+	}
+	this.first = first(this.lines);
+    }
+
+    /* from a header record that has already been read */
+    public LogSniffer(String[] h) {
+	this.first = h;
+	this.complete = false;
+    }
+
+    private static String[] first(List<String> lines) {
+	final CSVParser parser = new CSVParser();
+	String[] h = null;
+	for(String l: lines) {
+	    try {
+		final String[] r = parser.parseLineMulti(l);
+		if(h==null) {
+		    h = r;
+		} else {
+		    final String[] t = new String[h.length+r.length];
+		    System.arraycopy(h, 0, t, 0, h.length);
+		    System.arraycopy(r, 0, t, h.length, r.length);
+		    h = t;
+		}
+	    } catch (IOException e) {
+		return null;
+	    }
+	    if(parser.isPending()) continue;
+	    if(h.length>=1 && h[0].trim().length()>0 &&
+		!COMMENT.matcher(h[0].trim()).matches()) {
+		h[0] = h[0].trim();
+		return h;
+	    }
+	    h = null;
+	}
+	return null;
+    }
+
+    /* false if the prefix has a NUL in it */
+    public boolean isText() { return this.text; }
+    public boolean isComplete() { return this.complete; }
+    public List<String> getLines() { return this.lines; }
+    /* null if it isn't in the prefix */
+    public String[] getFirst() { return this.first; }
+    public String first() { return this.first==null?null:this.first[0]; }
+}
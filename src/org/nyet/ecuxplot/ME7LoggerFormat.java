@@ -0,0 +1,40 @@
+package org.nyet.ecuxplot;
+
+import java.util.regex.Pattern;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+public class ME7LoggerFormat extends LogFormat {
+    private static final Pattern BANNER = Pattern.compile(".*ME7-Logger.*");
+
+    public String getName() { return "me7logger"; }
+    public int getType() { return ECUxDataset.LOG_ME7LOGGER; }
+
+    public boolean detect(LogSniffer s) {
+	return BANNER.matcher(s.first()).matches();
+    }
+
+    public String[][] parseHeaders(CSVReader reader, String[] h,
+	boolean detected, String fileId) throws Exception {
+	String[] v;	// ME7 variable name
+	do {
+	    v = reader.readNext();
+	    if (v==null) {
+		throw new Exception(fileId + ": read failed parsing ME7Logger log");
+	    }
+	} while (v.length<1 || !v[0].equals("TimeStamp"));
+
+	final String[] u = reader.readNext();
+	for(int i=0;i<u.length;i++) u[i]=units(u[i].trim());
+
+	h = reader.readNext();
+	for(int i=0;i<h.length;i++) {
+	    h[i]=alias(h[i].trim());
+	    if(h[i].length()==0) {
+		v[i]=v[i].trim();
+		if(v[i].length()>0) h[i]="ME7L " + v[i];
+	    }
+	}
+	return new String[][] {h, u};
+    }
+}
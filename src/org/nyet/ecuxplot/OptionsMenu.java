@@ -95,6 +95,25 @@ public final class OptionsMenu extends JMenu {
 	jmi = new JMenuItem("Edit PID...");
 	jmi.addActionListener(plotFrame);
 	this.add(jmi);
+
+	this.add(new JSeparator());
+
+	jcb = new JCheckBox("Follow files", ECUxDataset.followEnabled(prefs));
+	jcb.addActionListener(plotFrame);
+	this.add(jcb);
+
+	jcb = new JCheckBox("Cache parsed logs",
+		ECUxDataset.logCacheEnabled(prefs));
+	jcb.addActionListener(plotFrame);
+	this.add(jcb);
+
+	jmi = new JMenuItem("Log cache directory...");
+	jmi.addActionListener(plotFrame);
+	this.add(jmi);
+
+	jmi = new JMenuItem("Purge log cache");
+	jmi.addActionListener(plotFrame);
+	this.add(jmi);
     }
 
     private void updatePresets() {
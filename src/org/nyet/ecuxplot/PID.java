@@ -11,5 +11,11 @@ public class PID {
     public double I = 10;
     public double[] D = {.8, 4, 4, 0}; // 0, 300, 500, 700 mBar
 
+    // not backed by prefs, whoever changes the fields calls changed()
+    private volatile int version = 0;
+
     public PID(Preferences prefs) {}
+
+    public int version() { return this.version; }
+    public synchronized void changed() { this.version++; }
 }
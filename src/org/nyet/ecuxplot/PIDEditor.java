@@ -32,6 +32,7 @@ public class PIDEditor extends PreferencesEditor {
 	this.pid.D[1] = Double.valueOf(this.D1.getText());
 	this.pid.D[2] = Double.valueOf(this.D2.getText());
 	this.pid.D[3] = Double.valueOf(this.D3.getText());
+	this.pid.changed();
 	super.Process(event);
     }
 
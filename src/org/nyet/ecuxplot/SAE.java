@@ -12,9 +12,43 @@ public class SAE {
     private static final double defaultHumidity = 0;
 
     private Preferences prefs;
+    private volatile Snapshot snapshot;
+
+    /* current values, read these in loops.  See Filter.Snapshot */
+    public static final class Snapshot {
+	public final int version;
+	public final boolean enabled;
+	public final double temperature;
+	public final double altitude;
+	public final double humidity;
+
+	private Snapshot(Preferences p, int version) {
+	    this.version = version;
+	    this.enabled = p.getBoolean("enabled", defaultEnabled);
+	    this.temperature = p.getDouble("temperature", defaultTemperature);
+	    this.altitude = p.getDouble("altitude", defaultAltitude);
+	    this.humidity = p.getDouble("humidity", defaultHumidity);
+	}
+
+	private boolean same(Snapshot o) {
+	    return o.enabled==enabled &&
+		o.temperature==temperature &&
+		o.altitude==altitude &&
+		o.humidity==humidity;
+	}
+    }
 
     public SAE(Preferences prefs) {
 	this.prefs = prefs.node(PREFS_TAG);
+	this.snapshot = new Snapshot(this.prefs, 0);
+    }
+
+    public Snapshot snapshot() { return this.snapshot; }
+    public int version() { return this.snapshot.version; }
+
+    public synchronized void refresh() {
+	final Snapshot s = new Snapshot(this.prefs, this.snapshot.version+1);
+	if(!s.same(this.snapshot)) this.snapshot = s;
     }
 
     public static boolean enabled(Preferences prefs) {
@@ -22,26 +56,26 @@ public class SAE {
     }
 
     public boolean enabled() {
-	return this.prefs.getBoolean("enabled", defaultEnabled);
+	return this.snapshot.enabled;
     }
     public void enabled(boolean val) {
 	this.prefs.putBoolean("enabled", val);
     }
 
     public double temperature() {
-	return this.prefs.getDouble("temperature", defaultTemperature);
+	return this.snapshot.temperature;
     }
     public void temperature(double val) {
 	this.prefs.putDouble("temperature", val);
     }
     public double altitude() {
-	return this.prefs.getDouble("altitude", defaultAltitude);
+	return this.snapshot.altitude;
     }
     public void altitude(double val) {
 	this.prefs.putDouble("altitude", val);
     }
     public double humidity() {
-	return this.prefs.getDouble("humidity", defaultHumidity);
+	return this.snapshot.humidity;
     }
     public void humidity(double val) {
 	this.prefs.putDouble("humidity", val);
@@ -0,0 +1,68 @@
+package org.nyet.ecuxplot;
+
+import java.util.regex.Pattern;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+public class VCDSFormat extends LogFormat {
+    private static final Pattern DATE = Pattern.compile("^.*day$");
+    private static final Pattern GROUP24 = Pattern.compile("^Group 24.*");
+
+    public String getName() { return "vcds"; }
+    public int getType() { return ECUxDataset.LOG_VCDS; }
+
+    public boolean detect(LogSniffer s) {
+	return DATE.matcher(s.first()).matches();
+    }
+
+    public String[][] parseHeaders(CSVReader reader, String[] h,
+	boolean detected, String fileId) throws Exception {
+	String[] e,b,g,h2,u;
+				// 1: date read already during detect
+	e = reader.readNext();	// 2: ECU type
+	b = reader.readNext();	// 3: blank or GXXX/FXXX headers
+	g = reader.readNext();	// 4: Group or blank
+	h = reader.readNext();	// 5: headers 1 or Group
+	h2 = reader.readNext();	// 6: headers 2 or units or headers
+	u = reader.readNext();	// 7: units
+
+	if(g.length<=1) {
+	    // g is blank. move everything up one
+	    g=h;
+	    h=h2;
+	    h2=new String[h.length];
+	}
+
+	if(g.length<h.length) {
+	    // extend g to length of h
+	    String[] newg = new String[h.length];
+	    System.arraycopy(g, 0, newg, 0, g.length);
+	    g=newg;
+	}
+
+	for(int i=0;i<h.length;i++) {
+	    g[i]=(g[i]!=null)?g[i].trim():"";
+	    h[i]=(h[i]!=null)?h[i].trim():"";
+	    h2[i]=(h2[i]!=null)?h2[i].trim():"";
+	    u[i]=(u[i]!=null)?u[i].trim():"";
+	    // g=TIME and h=STAMP means this is a TIME column
+	    if(g[i].equals("TIME") && h[i].equals("STAMP")) {
+		g[i]="";
+		h[i]="TIME";
+	    }
+	    // if h2 has a copy of units, nuke it
+	    if(h2[i].equals(u[i])) h2[i]="";
+	    // concat h1 and h2 if both are non zero length
+	    if(h[i].length()>0 && h2[i].length()>0)  h[i]+=" ";
+	    h[i]+=h2[i];
+	    // remap engine speed to "RPM', ignore weird case and spacing
+	    h[i]=alias(h[i]);
+	    // copy header from u if this h is empty
+	    if(h[i].length()==0) h[i]=u[i];
+	    // blacklist Group 24 Accelerator position, it has max of 80%?
+	    if(GROUP24.matcher(g[i]).matches() && h[i].equals("Accelerator position"))
+		h[i]=("Accelerator position (G024)");
+	}
+	return new String[][] {h, u};
+    }
+}
@@ -0,0 +1,42 @@
+package org.nyet.ecuxplot;
+
+import java.util.regex.Pattern;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+import org.nyet.util.Files;
+
+public class ZeitronixFormat extends LogFormat {
+    private static final Pattern FILENAME = Pattern.compile("^Filename:.*");
+    private static final Pattern UNNAMED = Pattern.compile(".*<unnamed file>$");
+
+    public String getName() { return "zeitronix"; }
+    public int getType() { return ECUxDataset.LOG_ZEITRONIX; }
+
+    public boolean detect(LogSniffer s) {
+	final String h = s.first();
+	if(!FILENAME.matcher(h).matches()) return false;
+	return Files.extension(h).equals("zto") ||
+	    Files.extension(h).equals("zdl") ||
+	    UNNAMED.matcher(h).matches();
+    }
+
+    public String[][] parseHeaders(CSVReader reader, String[] h,
+	boolean detected, String fileId) throws Exception {
+	if (detected) {
+	    // we detected zeitronix header, strip it
+	    reader.readNext();     // Date exported
+	    do {
+		h = reader.readNext(); // headers
+		if (h==null)
+		    throw new Exception(fileId + ": read failed parsing zeitronix log");
+	    } while (h.length<=1);
+	}
+	// otherwise, the user gave us a zeit log with no header,
+	// but asked us to treat it like a zeit log.
+
+	final String[] u = parseUnits(h);
+	for(int i=0;i<h.length;i++) h[i]=alias(h[i]);
+	return new String[][] {h, u};
+    }
+}
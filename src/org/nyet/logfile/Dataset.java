@@ -2,20 +2,53 @@ package org.nyet.logfile;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import java.text.SimpleDateFormat;
 import au.com.bytecode.opencsv.*;
 
 import org.nyet.util.DoubleArray;
+import org.nyet.util.WorkerPool;
 
 public class Dataset {
+    // set to true to parse with opencsv instead of the mmap reader
+    public static final String OPENCSV_PROPERTY = "org.nyet.logfile.opencsv";
+    // set to true to decode every column up front
+    public static final String EAGER_PROPERTY = "org.nyet.logfile.eager";
+    // how many pieces a big log is read in, 1 reads it on one thread
+    public static final String THREADS_PROPERTY = "org.nyet.logfile.threads";
+
+    private static final Pattern NONPRINT = Pattern.compile("[^\\p{Print}]");
+    private static final Pattern TIME_MS =
+	Pattern.compile("\\d{2}:\\d{2}:\\d{2}.\\d{3}");
+    private static final Pattern TIME =
+	Pattern.compile("\\d{2}:\\d{2}:\\d{2}");
+
     private String [] ids;
     private String [] units;
     private String fileId;
     private ArrayList<Column> columns;
     private ArrayList<Range> range_cache = new ArrayList<Range>();
     private int rows;
-    protected ArrayList<String> lastFilterReasons = new ArrayList<String>();
+    private Object lastRejected = null;
+
+    // a followed file, and how much of it has been read
+    private String path;
+    private long end = -1;
+
+    // where a freshly parsed log goes once it is built, see cacheLater()
+    private DatasetCache cache;
+    private DatasetCache.Key cacheKey;
+
+    // decodes columns on first use, dropped once they all are
+    private volatile ColumnSource source;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    public interface ColumnSource {
+	/* fill in c.data from field of every row */
+	public void decode(Column c, int field) throws IOException;
+    }
 
     public class Range {
 	public int start;
@@ -33,6 +66,7 @@ public class Dataset {
 	private Comparable<?> id;
 	private String units;
 	public DoubleArray data;
+	private volatile int field = -1;	// not decoded yet if >=0
 
 	public Column(Comparable<?> id, String units) {
 	    this(id, units, new DoubleArray());
@@ -42,20 +76,22 @@ public class Dataset {
 	    this.units = units;
 	    this.data = data;
 	}
+	/* decoded by the dataset's ColumnSource when it is first looked up */
+	Column(Comparable<?> id, String units, int field) {
+	    this.id = id;
+	    this.units = units;
+	    this.field = field;
+	}
 
 	public void add(String s) {
 	    // nuke non-printable chars
-	    final Pattern p = Pattern.compile("[^\\p{Print}]");
-	    s=p.matcher(s).replaceAll("");
+	    s=NONPRINT.matcher(s).replaceAll("");
 
 	    // look for time stamps, convert to seconds
-	    final Pattern p1 = Pattern.compile("\\d{2}:\\d{2}:\\d{2}.\\d{3}");
-	    final Pattern p2 = Pattern.compile("\\d{2}:\\d{2}:\\d{2}");
-
 	    SimpleDateFormat fmt=null;
-	    if (p1.matcher(s).matches()) {
+	    if (TIME_MS.matcher(s).matches()) {
 		fmt = new SimpleDateFormat("HH:mm:ss.SSS");
-	    } else if (p2.matcher(s).matches()) {
+	    } else if (TIME.matcher(s).matches()) {
 		fmt = new SimpleDateFormat("HH:mm:ss");
 	    }
 	    if (fmt != null) {
@@ -170,26 +206,299 @@ public class Dataset {
     }
 
     public Dataset(String filename) throws Exception {
+	this(filename, (DatasetCache)null);
+    }
+
+    public Dataset(String filename, DatasetCache cache) throws Exception {
+	this(filename, cache, false);
+    }
+
+    /*
+     * A followed file is read up to its last complete line, and tail()
+     * picks up from there.  It is never cached, it keeps changing.  A
+     * gzipped one can't be followed, it is just read.
+     */
+    public Dataset(String filename, DatasetCache cache, boolean follow)
+	    throws Exception {
 	this.fileId = org.nyet.util.Files.filename(filename);
 	this.rows = 0;
 	this.columns = new ArrayList<Column>();
-	final CSVReader reader = new CSVReader(new FileReader(filename));
+	if(follow && !org.nyet.util.Files.isGzip(filename)) {
+	    this.path = filename;
+	    parse(filename, new MMapCSVReader(filename, 0));
+	} else {
+	    // before parsing, in case it changes while we read it
+	    final DatasetCache.Key k = cache==null?null:cache.key(filename);
+	    if(k==null || !cache.read(this, k)) {
+		parse(filename, null);
+		if(k!=null) {
+		    this.cache = cache;
+		    this.cacheKey = k;
+		}
+	    }
+	}
+	buildRanges();
+    }
+
+    /*
+     * Writes a log that missed the cache out to it in the background.
+     * Call it once the dataset is fully built, subclass and all: the
+     * writer calls saveState() and reads every column.
+     */
+    public void cacheLater() {
+	if(this.cache==null) return;
+	this.cache.writeLater(this, this.cacheKey);
+	this.cache = null;
+	this.cacheKey = null;
+    }
+
+    /*
+     * Headers only, for records that arrive some other way than from a
+     * file.  Subclasses add them with append().
+     */
+    protected Dataset(String fileId, CSVReader reader) throws Exception {
+	this.fileId = fileId;
+	this.rows = 0;
 	ParseHeaders(reader);
-	for(int i=0;i<this.ids.length;i++)
-	    this.columns.add(new Column(this.ids[i], this.units[i]));
-
-	String [] nextLine;
-	while((nextLine = reader.readNext()) != null) {
-	    for(int i=0;i<nextLine.length;i++) {
-		if (this.columns.size() > i)
-		    this.columns.get(i).add(nextLine[i]);
+	this.columns = newColumns(0);
+	buildRanges();
+    }
+
+    private Column load(Column c) {
+	if(c==null || c.field<0) return c;
+	synchronized(c) {
+	    if(c.field>=0) {
+		try {
+		    this.source.decode(c, c.field);
+		} catch (IOException e) {
+		    // the file changed under us, keep what was decoded
+		    if(c.data==null) c.data = new DoubleArray(0);
+		}
+		c.field = -1;
+		if(this.pending.decrementAndGet()==0) this.source = null;
+	    }
+	}
+	return c;
+    }
+
+    /*
+     * c's values without loading it: one that hasn't been looked up yet
+     * is decoded into a scratch column and stays unloaded.
+     */
+    DoubleArray peek(Column c) throws IOException {
+	synchronized(c) {
+	    if(c.field<0) return c.data;
+	    final Column tmp = new Column(c.id, c.units, null);
+	    this.source.decode(tmp, c.field);
+	    return tmp.data;
+	}
+    }
+
+    /* as they are, loaded or not */
+    ArrayList<Column> columns() { return this.columns; }
+
+    private void setSource(ColumnSource s) {
+	int n = 0;
+	for(Column c: this.columns) if(c.field>=0) n++;
+	this.pending.set(n);
+	this.source = n>0?s:null;
+    }
+
+    private void parse(String filename, MMapCSVReader follow)
+	    throws Exception {
+	sniff(filename);
+
+	MMapCSVReader mreader = follow;
+	if (mreader==null && !Boolean.getBoolean(OPENCSV_PROPERTY)) {
+	    try {
+		mreader = new MMapCSVReader(filename);
+	    } catch (Exception e) {
+		// can't map it, use opencsv below
+	    }
+	}
+	final CSVReader reader = (mreader!=null)?mreader:
+	    new CSVReader(new InputStreamReader(
+		org.nyet.util.Files.open(filename)));
+	try {
+	    ParseHeaders(reader);
+	    final int threads = Integer.getInteger(THREADS_PROPERTY,
+		WorkerPool.threads());
+	    if (mreader!=null && follow==null &&
+		!Boolean.getBoolean(EAGER_PROPERTY)) {
+		// just find the rows, columns are decoded when asked for
+		this.rows = mreader.index(threads);
+		for(int i=0;i<this.ids.length;i++)
+		    this.columns.add(new Column(this.ids[i], this.units[i], i));
+		setSource(mreader);
+		return;
+	    }
+
+	    if (mreader!=null) {
+		this.rows = readRows(mreader, threads);
+		if (follow!=null) this.end = follow.length();
+	    } else {
+		this.columns.addAll(newColumns(0));
+		String [] nextLine;
+		while((nextLine = reader.readNext()) != null) {
+		    for(int i=0;i<nextLine.length;i++) {
+			if (this.columns.size() > i)
+			    this.columns.get(i).add(nextLine[i]);
+		    }
+		    this.rows++;
+		}
+	    }
+	} finally {
+	    reader.close();
+	}
+    }
+
+    /* sized up front so they don't keep growing */
+    private ArrayList<Column> newColumns(int est) {
+	final ArrayList<Column> out = new ArrayList<Column>(this.ids.length);
+	for(int i=0;i<this.ids.length;i++) {
+	    if (est>0)
+		out.add(new Column(this.ids[i], this.units[i],
+		    new DoubleArray(est)));
+	    else
+		out.add(new Column(this.ids[i], this.units[i]));
+	}
+	return out;
+    }
+
+    /*
+     * Reads a big log a piece per thread, each into columns of its own,
+     * and joins them in file order.  If any piece had quotes in it the
+     * whole thing is read again on this thread.
+     */
+    private int readRows(MMapCSVReader mreader, int threads) throws Exception {
+	final List<MMapCSVReader> parts = mreader.split(threads);
+	if (parts.size()>1) {
+	    final ArrayList<ArrayList<Column>> pieces =
+		new ArrayList<ArrayList<Column>>(parts.size());
+	    final ArrayList<Callable<Integer>> tasks =
+		new ArrayList<Callable<Integer>>(parts.size());
+	    for (final MMapCSVReader r: parts) {
+		final ArrayList<Column> cols = newColumns(r.estimateRows());
+		pieces.add(cols);
+		tasks.add(new Callable<Integer>() {
+		    public Integer call() throws IOException {
+			int n = 0;
+			while(r.readRow(cols)) n++;
+			return n;
+		    }
+		});
+	    }
+	    final List<Integer> counts = WorkerPool.run(tasks);
+	    boolean plain = true;
+	    for (MMapCSVReader r: parts) plain &= r.isPlain();
+	    if (plain) {
+		int n = 0;
+		for (Integer c: counts) n += c;
+		for (int i=0;i<this.ids.length;i++) {
+		    int size = 0;
+		    for (ArrayList<Column> p: pieces) size += p.get(i).data.size();
+		    final double[] a = new double[size];
+		    int off = 0;
+		    for (ArrayList<Column> p: pieces) {
+			final DoubleArray.View v = p.get(i).data.view();
+			v.asBuffer().get(a, off, v.size());
+			off += v.size();
+		    }
+		    this.columns.add(new Column(this.ids[i], this.units[i],
+			DoubleArray.wrap(a)));
+		}
+		return n;
 	    }
-	    this.rows++;
 	}
+
+	this.columns.addAll(newColumns(mreader.estimateRows()));
+	int n = 0;
+	while(mreader.readRow(this.columns)) n++;
+	return n;
+    }
+
+    /*
+     * Reads the complete lines appended to a followed file since the
+     * last call, and returns how many rows that added.  Only the new
+     * bytes are parsed.
+     */
+    public int tail() throws Exception {
+	if(this.end<0) throw new Exception(this.fileId + ": not followed");
+	final long len = new File(this.path).length();
+	if(len<this.end) throw new Exception(this.fileId + ": file shrank");
+	if(len==this.end) return 0;
+
+	final MMapCSVReader r = new MMapCSVReader(this.path, this.end);
+	final int from = this.rows;
+	int n = 0;
+	while(r.readRow(this.columns)) n++;
+	this.end += r.length();
+	if(n==0) return 0;
+	this.rows += n;
+	appended(from);
 	buildRanges();
+	return n;
+    }
+
+    public boolean isFollowed() { return this.end>=0; }
+
+    /* stops following, what was read so far stays */
+    public void unfollow() {
+	this.end = -1;
+	close();
+    }
+
+    /* lets go of anything still feeding the dataset */
+    public void close() { }
+
+    /* rows from on were just added by tail() */
+    protected void appended(int from) { }
+
+    /* one record, cells are parsed like the opencsv path does */
+    protected void append(String[] r) {
+	for(int i=0;i<r.length && i<this.columns.size();i++)
+	    load(this.columns.get(i)).add(r[i]);
+	this.rows++;
+    }
+
+    /*
+     * Forgets the oldest n rows, what was row n is now row 0.  The
+     * columns are shifted in place, so views have to be taken again.
+     */
+    protected void drop(int n) {
+	n = Math.min(n, this.rows);
+	if(n<=0) return;
+	for(Column c : getColumns()) c.data.trim(n);
+	this.rows -= n;
+	dropped(n);
     }
 
-    public ArrayList<Column> getColumns() {return this.columns;}
+    protected void dropped(int n) { }
+
+    void restore(String[] ids, String[] units, ArrayList<Column> columns,
+	int rows, Properties state, ColumnSource source) {
+	this.ids = ids;
+	this.units = units;
+	this.columns = columns;
+	this.rows = rows;
+	setSource(source);
+	restoreState(state);
+    }
+
+    /* anything a subclass works out while parsing that a cache should keep */
+    protected void saveState(Properties state) { }
+    protected void restoreState(Properties state) { }
+    /* cached copies with a different stamp are parsed again */
+    protected String cacheStamp() { return ""; }
+
+    /* decodes every column */
+    public ArrayList<Column> getColumns() {
+	for(Column c : this.columns) load(c);
+	return this.columns;
+    }
+
+    /* a chance to reject the file before it is read */
+    protected void sniff(String filename) throws Exception { }
 
     public void ParseHeaders(CSVReader reader) throws Exception {
 	this.ids = reader.readNext();
@@ -197,7 +506,7 @@ public class Dataset {
     }
 
     public Column get(int id) {
-	return (Column) this.columns.get(id);
+	return load(this.columns.get(id));
     }
 
     public String units(Comparable<?> id) {
@@ -208,7 +517,7 @@ public class Dataset {
 
     public Column get(Comparable<?> id) {
 	for(Column c : this.columns)
-	    if(id.equals(c.id)) return c;
+	    if(id.equals(c.id)) return load(c);
 	return null;
     }
 
@@ -219,54 +528,74 @@ public class Dataset {
 	return true;
     }
 
-    protected boolean dataValid(int i) { return true; }
+    /* rows that pass the filter */
+    protected BitSet validRows() {
+	final BitSet b = new BitSet(this.rows);
+	b.set(0, this.rows);
+	return b;
+    }
     protected boolean rangeValid(Range r) { return true; }
 
+    /* why a row or range was rejected, only asked for on demand */
+    protected ArrayList<String> rowReasons(int i) {
+	return new ArrayList<String>();
+    }
+    protected ArrayList<String> rangeReasons(Range r) {
+	return new ArrayList<String>();
+    }
+
     public ArrayList<Range> getRanges() {
 	return this.range_cache;
     }
 
+    /*
+     * A range is a run of valid rows.  A run that reaches the end of
+     * the data loses its last row.
+     */
     protected void buildRanges() {
-        this.range_cache = new ArrayList<Range>();
-	Range r = null;
-	for(int i=0;i<this.rows; i++) {
-	    boolean end = false;
-	    if(dataValid(i)) {
-		if(r==null) {
-		    r = new Range(i);
-		    this.lastFilterReasons=new ArrayList<String>();
-		}
-		if(i==this.rows-1) end=true; // we hit end of data
-	    } else {
-		end = true;
-	    }
-	    if(r!=null && end) {
-		r.end=i-1;
-		if(rangeValid(r)) {
-		    /*
-		    if(this.lastFilterReasons.size()!=0) {
-			System.out.println(Strings.join(":", this.lastFilterReasons) +
-				": adding range " + r.toString());
-		    }
-		    */
-		    this.range_cache.add(r);
-		}
-		r=null;
+	final ArrayList<Range> ranges = new ArrayList<Range>();
+	final BitSet valid = validRows();
+	Object rejected = null;	// last rejected row (Integer) or Range
+
+	int s = next(valid, 0);
+	if(s>0) rejected = Integer.valueOf(s-1);
+	while(s<this.rows) {
+	    rejected = null;
+	    final int c = valid.nextClearBit(s);
+	    if(c>=this.rows) {
+		final Range r = new Range(s, this.rows-2);
+		if(rangeValid(r)) ranges.add(r);
+		else rejected = r;
+		break;
 	    }
+	    rejected = Integer.valueOf(c);
+	    final Range r = new Range(s, c-1);
+	    if(rangeValid(r)) ranges.add(r);
+	    else rejected = r;
+	    s = next(valid, c);
+	    if(s-1>c) rejected = Integer.valueOf(s-1);
 	}
+	this.range_cache = ranges;
+	this.lastRejected = rejected;
+    }
+
+    private int next(BitSet b, int from) {
+	final int i = b.nextSetBit(from);
+	return (i<0 || i>=this.rows) ? this.rows : i;
     }
 
-    public double[] getData(Key id, Range r) {
+    // views share the column storage, copy them if you need to modify
+    public DoubleArray.View getData(Key id, Range r) {
 	// only match the string portion of the key
 	final Column c = this.get(id.getString());
 	if (c==null) return null;
-	return c.data.toArray(r.start, r.end);
+	return c.data.view(r.start, r.end);
     }
 
-    public double[] getData(Comparable<?> id, Range r) {
+    public DoubleArray.View getData(Comparable<?> id, Range r) {
 	final Column c = this.get(id);
 	if (c==null) return null;
-	return c.data.toArray(r.start, r.end);
+	return c.data.view(r.start, r.end);
     }
 
     public String getFileId() { return this.fileId; }
@@ -276,6 +605,41 @@ public class Dataset {
     public String [] getUnits() { return this.units; }
     public void setUnits(String [] units) { this.units=units; }
 
-    public ArrayList<String> getLastFilterReasons() { return this.lastFilterReasons; }
+    public ArrayList<String> getLastFilterReasons() {
+	final Object r = this.lastRejected;
+	if(r instanceof Range) return rangeReasons((Range)r);
+	if(r instanceof Integer) return rowReasons((Integer)r);
+	return new ArrayList<String>();
+    }
     public int length() { return this.rows; }
+
+    /* bytes allocated by this thread so far, -1 if the jvm can't tell */
+    private static long allocatedBytes() {
+	try {
+	    final Object bean = java.lang.management.ManagementFactory.getThreadMXBean();
+	    final Class<?> c = Class.forName("com.sun.management.ThreadMXBean");
+	    if (!c.isInstance(bean)) return -1;
+	    final Object ret = c.getMethod("getThreadAllocatedBytes", long.class).
+		invoke(bean, Thread.currentThread().getId());
+	    return ((Long)ret).longValue();
+	} catch (Exception e) {
+	    return -1;
+	}
+    }
+
+    public static void main(String[] args) throws Exception {
+	for(String a : args) {
+	    for(int pass=0; pass<2; pass++) {
+		System.setProperty(OPENCSV_PROPERTY, pass==0?"false":"true");
+		final long b = allocatedBytes();
+		final long t = System.nanoTime();
+		final Dataset d = new Dataset(a);
+		final long ms = (System.nanoTime()-t)/1000000;
+		final long bytes = allocatedBytes()-b;
+		System.out.println(String.format("%s: %s %d rows, %d columns: %d ms, %d bytes allocated",
+		    a, pass==0?"mmap":"opencsv", d.length(), d.getColumns().size(),
+		    ms, b<0?-1:bytes));
+	    }
+	}
+    }
 }
@@ -0,0 +1,310 @@
+package org.nyet.logfile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.nyet.util.DoubleArray;
+import org.nyet.util.Files;
+
+/*
+ * Keeps parsed logs on disk as columns of raw doubles, keyed by the log's
+ * path, size and mtime, and by Dataset.cacheStamp() so a new version or
+ * new header aliases don't pick up stale names.  A hit maps the cache
+ * file and copies a column out in one bulk get the first time it is
+ * looked up: nothing is tokenized and no timestamps are parsed.  Least
+ * recently used files are dropped once the directory grows past its size
+ * limit.
+ *
+ * Little endian throughout, strings are an int length (-1 for null) and
+ * UTF-8.  The columns start on an 8 byte boundary, one after another.
+ */
+public class DatasetCache {
+    private static final int MAGIC = 0x31584345;	// "ECX1"
+    private static final int FORMAT = 1;
+    private static final String EXT = ".ecuxc";
+
+    private final File dir;
+    private final long maxSize;
+
+    // one at a time, and let the jvm exit once they're done
+    private static final ExecutorService writer = new ThreadPoolExecutor(0, 1,
+	1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    public DatasetCache(File dir, long maxSize) {
+	this.dir = dir;
+	this.maxSize = maxSize;
+    }
+
+    /* a log as it was before it was read, so a late write can tell it changed */
+    static class Key {
+	final String path;
+	final long length;
+	final long mTime;
+
+	private Key(File f) throws IOException {
+	    this.path = f.getCanonicalPath();
+	    this.length = f.length();
+	    this.mTime = f.lastModified();
+	}
+
+	boolean current() {
+	    final File f = new File(this.path);
+	    return f.length()==this.length && f.lastModified()==this.mTime;
+	}
+    }
+
+    /* null if it isn't a file we can cache */
+    Key key(String filename) {
+	final File f = new File(filename);
+	if(!f.isFile()) return null;
+	try {
+	    return new Key(f);
+	} catch (IOException e) {
+	    return null;
+	}
+    }
+
+    public File getDir() { return this.dir; }
+    public long getMaxSize() { return this.maxSize; }
+
+    private File cacheFile(String path) {
+	return new File(this.dir, Files.filenameStem(path) + "-" +
+	    Integer.toHexString(path.hashCode()) + EXT);
+    }
+
+    /* fills in d from the cache, false on a miss */
+    boolean read(Dataset d, Key k) {
+	try {
+	    final File cache = cacheFile(k.path);
+	    if(!cache.isFile()) return false;
+
+	    final ByteBuffer b;
+	    final FileInputStream fi = new FileInputStream(cache);
+	    try {
+		b = fi.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+		    cache.length());
+	    } finally {
+		fi.close();
+	    }
+	    b.order(ByteOrder.LITTLE_ENDIAN);
+
+	    if(b.getInt()!=MAGIC || b.getInt()!=FORMAT) return false;
+	    if(!getString(b).equals(k.path) || b.getLong()!=k.length ||
+		b.getLong()!=k.mTime ||
+		!getString(b).equals(d.cacheStamp()))
+		return false;
+
+	    final int rows = b.getInt();
+	    final int n = b.getInt();
+	    final Properties state = new Properties();
+	    for(int i=b.getInt();i>0;i--) state.setProperty(getString(b), getString(b));
+	    final String[] ids = new String[n];
+	    final String[] units = new String[n];
+	    final int[] sizes = new int[n];
+	    for(int i=0;i<n;i++) {
+		ids[i] = getString(b);
+		units[i] = getString(b);
+		sizes[i] = b.getInt();
+	    }
+	    b.position((b.position()+7)&~7);
+
+	    final DoubleBuffer db = b.slice().order(ByteOrder.LITTLE_ENDIAN).
+		asDoubleBuffer();
+	    final int[] offsets = new int[n];
+	    final ArrayList<Dataset.Column> columns =
+		new ArrayList<Dataset.Column>(n);
+	    for(int i=0, off=0;i<n;i++) {
+		offsets[i] = off;
+		off += sizes[i];
+		columns.add(d.new Column(ids[i], units[i], i));
+	    }
+	    if(db.remaining()<(n>0?offsets[n-1]+sizes[n-1]:0)) return false;
+	    d.restore(ids, units, columns, rows, state,
+		new Dataset.ColumnSource() {
+		    public void decode(Dataset.Column c, int field) {
+			final double[] a = new double[sizes[field]];
+			final DoubleBuffer src = db.duplicate();
+			src.position(offsets[field]);
+			src.get(a);
+			c.data = DoubleArray.wrap(a);
+		    }
+		});
+	    cache.setLastModified(System.currentTimeMillis());
+	    return true;
+	} catch (Exception e) {
+	    // truncated, or from another version; parse it instead
+	    return false;
+	}
+    }
+
+    /*
+     * Decodes whatever d hasn't yet on a thread of its own, then writes.
+     * d has to be fully built by now, the writer calls into it.
+     */
+    void writeLater(final Dataset d, final Key k) {
+	writer.execute(new Runnable() {
+	    public void run() { write(d, k); }
+	});
+    }
+
+    /*
+     * The cache is only ever an optimization, failures just print.
+     * Columns d hasn't loaded are decoded one at a time and dropped once
+     * written, so a log that is only partly looked at stays that way.
+     */
+    void write(Dataset d, Key k) {
+	File tmp = null;
+	try {
+	    // still being written when it was read, d doesn't have all of it
+	    if(!k.current()) return;
+	    final File cache = cacheFile(k.path);
+	    if(!this.dir.isDirectory() && !this.dir.mkdirs())
+		throw new IOException("can't create " + this.dir);
+
+	    final ArrayList<Dataset.Column> columns = d.columns();
+	    final Properties state = new Properties();
+	    d.saveState(state);
+
+	    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	    final DataOutputStream out = new DataOutputStream(bytes);
+	    putInt(out, MAGIC);
+	    putInt(out, FORMAT);
+	    putString(out, k.path);
+	    putLong(out, k.length);
+	    putLong(out, k.mTime);
+	    putString(out, d.cacheStamp());
+	    putInt(out, d.length());
+	    putInt(out, columns.size());
+	    putInt(out, state.size());
+	    for(String name: state.stringPropertyNames()) {
+		putString(out, name);
+		putString(out, state.getProperty(name));
+	    }
+	    // sizes aren't known until a column is decoded, filled in after
+	    final int[] sizeAt = new int[columns.size()];
+	    for(int i=0;i<columns.size();i++) {
+		final Dataset.Column c = columns.get(i);
+		putString(out, c.getId());
+		putString(out, c.getUnits());
+		sizeAt[i] = out.size();
+		putInt(out, 0);
+	    }
+	    while((out.size()&7)!=0) out.write(0);
+	    out.close();
+
+	    // write it beside, then move it in, so a reader never sees half of it
+	    tmp = File.createTempFile(Files.stem(cache.getName()), ".tmp",
+		this.dir);
+	    final FileOutputStream fo = new FileOutputStream(tmp);
+	    try {
+		final FileChannel ch = fo.getChannel();
+		ch.write(ByteBuffer.wrap(bytes.toByteArray()));
+		final ByteBuffer size = ByteBuffer.allocate(4).
+		    order(ByteOrder.LITTLE_ENDIAN);
+		for(int i=0;i<columns.size();i++) {
+		    final DoubleArray data = d.peek(columns.get(i));
+		    final ByteBuffer b = ByteBuffer.allocate(data.size()*8).
+			order(ByteOrder.LITTLE_ENDIAN);
+		    b.asDoubleBuffer().put(data.view().asBuffer());
+		    while(b.hasRemaining()) ch.write(b);
+		    size.clear();
+		    size.putInt(0, data.size());
+		    ch.write(size, sizeAt[i]);
+		}
+	    } finally {
+		fo.close();
+	    }
+	    cache.delete();
+	    if(!tmp.renameTo(cache))
+		throw new IOException("can't rename " + tmp);
+	    prune();
+	} catch (IOException e) {
+	    System.err.println(k.path + ": can't cache: " + e.getMessage());
+	} finally {
+	    if(tmp!=null) tmp.delete();
+	}
+    }
+
+    private File[] files() {
+	final File[] files = this.dir.listFiles();
+	if(files==null) return new File[0];
+	final ArrayList<File> out = new ArrayList<File>();
+	for(File f: files)
+	    if(f.getName().endsWith(EXT)) out.add(f);
+	return out.toArray(new File[out.size()]);
+    }
+
+    /* newest first, drop whatever doesn't fit */
+    private void prune() {
+	final File[] files = files();
+	Arrays.sort(files, new Comparator<File>() {
+	    public int compare(File a, File b) {
+		final long d = b.lastModified() - a.lastModified();
+		return d<0?-1:(d>0?1:0);
+	    }
+	});
+	long total = 0;
+	for(File f: files) {
+	    total += f.length();
+	    if(total > this.maxSize) f.delete();
+	}
+    }
+
+    /* bytes in the cache */
+    public long size() {
+	long total = 0;
+	for(File f: files()) total += f.length();
+	return total;
+    }
+
+    /* returns the number of files removed */
+    public int purge() {
+	int n = 0;
+	for(File f: files()) if(f.delete()) n++;
+	return n;
+    }
+
+    private static String getString(ByteBuffer b) throws IOException {
+	final int len = b.getInt();
+	if(len==-1) return null;
+	if(len<0 || len>b.remaining()) throw new IOException("bad string");
+	final byte[] s = new byte[len];
+	b.get(s);
+	return new String(s, "UTF-8");
+    }
+
+    private static void putInt(DataOutputStream out, int v) throws IOException {
+	out.writeInt(Integer.reverseBytes(v));
+    }
+
+    private static void putLong(DataOutputStream out, long v) throws IOException {
+	out.writeLong(Long.reverseBytes(v));
+    }
+
+    private static void putString(DataOutputStream out, String s)
+	throws IOException {
+	if(s==null) {
+	    putInt(out, -1);
+	    return;
+	}
+	final byte[] b = s.getBytes("UTF-8");
+	putInt(out, b.length);
+	out.write(b);
+    }
+}
@@ -0,0 +1,491 @@
+package org.nyet.logfile;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import au.com.bytecode.opencsv.CSVParser;
+import au.com.bytecode.opencsv.CSVReader;
+
+import org.nyet.util.DoubleArray;
+import org.nyet.util.Files;
+import org.nyet.util.MMapFile;
+import org.nyet.util.WorkerPool;
+
+/*
+ * CSVReader replacement that works directly on a memory mapped file.
+ *
+ * readNext() behaves like opencsv's (lines are decoded with the default
+ * charset, like FileReader does), so header parsing is unchanged.
+ * readRow() tokenizes a data line in place and appends numbers and
+ * HH:mm:ss(.SSS) timestamps straight into the column storage, without
+ * building a String per cell.  Anything it does not recognize is handed
+ * to Column.add(String), so results match the opencsv path.
+ *
+ * index() is the lazy alternative to readRow(): it only records where
+ * each row starts, and decode() later walks those rows for one field.
+ *
+ * A gzipped log is inflated into one buffer up front and read the same
+ * way, so it costs its compressed size in I/O rather than a temp file.
+ *
+ * The (filename, start) constructor maps from start up to the end of the
+ * last complete line, for following a file that is still being written.
+ *
+ * split() cuts the rest of the file into pieces that start on a line, for
+ * reading on several threads.  A piece is a reader of its own that shares
+ * the mapping; isPlain() says if it ran into any quotes or escapes, as a
+ * quoted field may hold a newline that a piece started after.
+ */
+public class MMapCSVReader extends CSVReader implements Dataset.ColumnSource {
+    private static final double [] POW10 = {
+	1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+	1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    // largest mantissa that is exactly representable as a double
+    private static final long MAX_EXACT = 1L<<53;
+    // don't split the file any finer than this
+    private static final int CHUNK = 1<<20;
+
+    private final ByteBuffer buf;
+    private final int limit;
+    private final CSVParser parser = new CSVParser();
+    private final Charset charset = Charset.defaultCharset();
+    private int pos = 0;
+    private boolean plain = true;	// no quotes or escapes seen
+
+    // row start offsets, and rows with quotes parsed up front
+    private int [] starts;
+    private HashMap<Integer, String[]> quoted;
+
+    // scratch space for the printable bytes of a single cell
+    private byte [] cell = new byte[64];
+    private int cellLen;
+
+    // SimpleDateFormat's idea of 00:00:00 (in ms), so fast path timestamps
+    // land on the same values as the old path
+    private final long timeBase;
+
+    public MMapCSVReader(String filename) throws Exception {
+	super(new StringReader(""));
+	if (Files.isGzip(filename)) {
+	    this.buf = inflate(filename);
+	    this.limit = this.buf.limit();
+	} else {
+	    final MMapFile f = new MMapFile(filename, ByteOrder.nativeOrder());
+	    if (f.length > Integer.MAX_VALUE)
+		throw new Exception(filename + ": too large to map");
+	    this.buf = f.getByteBuffer();
+	    this.limit = (int)f.length;
+	}
+	this.timeBase = new SimpleDateFormat("HH:mm:ss").parse("00:00:00").getTime();
+    }
+
+    public MMapCSVReader(String filename, long start) throws Exception {
+	super(new StringReader(""));
+	final FileInputStream in = new FileInputStream(filename);
+	try {
+	    final FileChannel ch = in.getChannel();
+	    final long n = ch.size()-start;
+	    if (n<0 || n>Integer.MAX_VALUE)
+		throw new Exception(filename + ": can't map from " + start);
+	    this.buf = ch.map(FileChannel.MapMode.READ_ONLY, start, n);
+	} finally {
+	    in.close();
+	}
+	this.limit = lastLine(this.buf);
+	this.timeBase = new SimpleDateFormat("HH:mm:ss").parse("00:00:00").getTime();
+    }
+
+    /* all of a gzipped file, sized from its trailer so it isn't copied as it grows */
+    private static ByteBuffer inflate(String filename) throws Exception {
+	int size = Files.GZIP_BUFFER;
+	final RandomAccessFile f = new RandomAccessFile(filename, "r");
+	try {
+	    // the inflated size mod 2^32, believe it if deflate could get there
+	    final long n = f.length();
+	    if (n>=4) {
+		f.seek(n-4);
+		final long isize = Integer.reverseBytes(f.readInt())&0xffffffffL;
+		if (isize>size && isize<=Integer.MAX_VALUE && isize<=n*1032)
+		    size = (int)isize;
+	    }
+	} finally {
+	    f.close();
+	}
+
+	byte [] b = new byte[size];
+	int len = 0;
+	final InputStream in = Files.open(filename);
+	try {
+	    while (true) {
+		if (len==b.length) {
+		    final int c = in.read();
+		    if (c<0) break;
+		    if (b.length>Integer.MAX_VALUE/2)
+			throw new Exception(filename + ": too large to inflate");
+		    b = Arrays.copyOf(b, b.length*2);
+		    b[len++] = (byte)c;
+		}
+		final int n = in.read(b, len, b.length-len);
+		if (n<0) break;
+		len += n;
+	    }
+	} finally {
+	    in.close();
+	}
+	return ByteBuffer.wrap(b, 0, len);
+    }
+
+    /* just past the last terminator, a '\r' at the very end may be half a "\r\n" */
+    private static int lastLine(ByteBuffer b) {
+	for (int p=b.limit()-1; p>=0; p--) {
+	    final byte c = b.get(p);
+	    if (c=='\n' || (c=='\r' && p+1<b.limit())) return p+1;
+	}
+	return 0;
+    }
+
+    /* a reader for start..end of r's file */
+    private MMapCSVReader(MMapCSVReader r, int start, int end) {
+	super(new StringReader(""));
+	this.buf = r.buf.duplicate();
+	this.limit = end;
+	this.pos = start;
+	this.timeBase = r.timeBase;
+    }
+
+    public long length() { return this.limit; }
+
+    /* offset of the next record, past the header once that is parsed */
+    public long position() { return this.pos; }
+
+    public boolean isPlain() { return this.plain; }
+
+    /*
+     * Up to n readers for what is left, in file order, each at least
+     * CHUNK bytes and starting on a line.  This reader doesn't move.
+     */
+    public List<MMapCSVReader> split(int n) {
+	n = Math.max(1, Math.min(n, (this.limit-this.pos)/CHUNK));
+	final ArrayList<MMapCSVReader> out = new ArrayList<MMapCSVReader>(n);
+	int start = this.pos;
+	for (int i=1; i<=n; i++) {
+	    int end = this.limit;
+	    if (i<n) {
+		end = this.pos + (int)((long)(this.limit-this.pos)*i/n);
+		end = Math.max(start, skipEol(lineEnd(end)));
+	    }
+	    out.add(new MMapCSVReader(this, start, end));
+	    start = end;
+	}
+	return out;
+    }
+
+    public boolean hasNext() { return this.pos < this.limit; }
+
+    /* guess how many rows are left from the first few line lengths */
+    public int estimateRows() {
+	int p = this.pos, n = 0;
+	for (; n<16 && p<this.limit; n++)
+	    p = skipEol(lineEnd(p));
+	if (n==0) return 0;
+	final long avg = Math.max(1, (p-this.pos)/n);
+	return (int)Math.min(Integer.MAX_VALUE-16, (this.limit-this.pos)/avg + 16);
+    }
+
+    /* returns the index of the end of the line starting at pos */
+    private int lineEnd(int p) {
+	while (p<this.limit) {
+	    final byte c = this.buf.get(p);
+	    if (c=='\n' || c=='\r') break;
+	    p++;
+	}
+	return p;
+    }
+
+    /* skips the terminator at p, like BufferedReader.readLine() */
+    private int skipEol(int p) {
+	if (p<this.limit && this.buf.get(p)=='\r') p++;
+	else if (p<this.limit && this.buf.get(p)=='\n') return p+1;
+	else return p;
+	if (p<this.limit && this.buf.get(p)=='\n') p++;
+	return p;
+    }
+
+    private String nextLine() {
+	if (this.pos>=this.limit) return null;
+	final int end = lineEnd(this.pos);
+	final byte [] b = new byte[end-this.pos];
+	for (int i=0;i<b.length;i++) b[i]=this.buf.get(this.pos+i);
+	this.pos = skipEol(end);
+	return new String(b, this.charset);
+    }
+
+    public String[] readNext() throws IOException {
+	String[] result = null;
+	do {
+	    final String line = nextLine();
+	    if (line==null) return result;
+	    final String[] r = this.parser.parseLineMulti(line);
+	    if (r.length > 0) {
+		if (result == null) {
+		    result = r;
+		} else {
+		    final String[] t = new String[result.length+r.length];
+		    System.arraycopy(result, 0, t, 0, result.length);
+		    System.arraycopy(r, 0, t, result.length, r.length);
+		    result = t;
+		}
+	    }
+	} while (this.parser.isPending());
+	return result;
+    }
+
+    /*
+     * Parse one record into columns.  Returns false at end of file.
+     * Lines with quotes or escapes go through the opencsv parser.
+     */
+    public boolean readRow(List<Dataset.Column> columns) throws IOException {
+	if (this.pos>=this.limit) return false;
+	final int end = lineEnd(this.pos);
+	for (int p=this.pos; p<end; p++) {
+	    final byte c = this.buf.get(p);
+	    if (c=='"' || c=='\\') {
+		this.plain = false;
+		final String [] r = readNext();
+		for (int i=0; i<r.length && i<columns.size(); i++)
+		    columns.get(i).add(r[i]);
+		return true;
+	    }
+	}
+
+	int i = 0, p = this.pos;
+	final int ncols = columns.size();
+	while (true) {
+	    int q = p;
+	    while (q<end && this.buf.get(q)!=',') q++;
+	    if (i<ncols) addCell(columns.get(i), p, q);
+	    i++;
+	    if (q>=end) break;
+	    p = q+1;
+	}
+	this.pos = skipEol(end);
+	return true;
+    }
+
+    /*
+     * like readRow() until the end of file, returns the number of rows.
+     * Big files are indexed a piece per thread when none of them quote.
+     */
+    public int index(int threads) throws Exception {
+	final List<MMapCSVReader> parts = split(threads);
+	if (parts.size()>1) {
+	    final ArrayList<Callable<Integer>> tasks =
+		new ArrayList<Callable<Integer>>(parts.size());
+	    for (final MMapCSVReader r: parts) {
+		tasks.add(new Callable<Integer>() {
+		    public Integer call() throws IOException {
+			return r.index();
+		    }
+		});
+	    }
+	    final List<Integer> counts = WorkerPool.run(tasks);
+	    boolean plain = true;
+	    int n = 0;
+	    for (int i=0; i<parts.size(); i++) {
+		plain &= parts.get(i).quoted.isEmpty();
+		n += counts.get(i);
+	    }
+	    if (plain) {
+		this.starts = new int[n];
+		this.quoted = new HashMap<Integer, String[]>();
+		n = 0;
+		for (MMapCSVReader r: parts) {
+		    System.arraycopy(r.starts, 0, this.starts, n, r.starts.length);
+		    n += r.starts.length;
+		}
+		this.pos = this.limit;
+		return n;
+	    }
+	}
+	return index();
+    }
+
+    private int index() throws IOException {
+	int n = 0;
+	this.starts = new int[Math.max(16, estimateRows())];
+	this.quoted = new HashMap<Integer, String[]>();
+	while (this.pos<this.limit) {
+	    if (n==this.starts.length)
+		this.starts = Arrays.copyOf(this.starts, n + (n>>1));
+	    this.starts[n] = this.pos;
+	    final int end = lineEnd(this.pos);
+	    boolean plain = true;
+	    for (int p=this.pos; p<end && plain; p++) {
+		final byte c = this.buf.get(p);
+		plain = c!='"' && c!='\\';
+	    }
+	    if (plain) this.pos = skipEol(end);
+	    else this.quoted.put(n, readNext());
+	    n++;
+	}
+	this.starts = Arrays.copyOf(this.starts, n);
+	return n;
+    }
+
+    /* one field of every indexed row, appended the way readRow() would */
+    public synchronized void decode(Dataset.Column c, int field)
+	throws IOException {
+	if (this.starts==null) throw new IOException("not indexed");
+	c.data = new DoubleArray(Math.max(1, this.starts.length));
+	for (int r=0; r<this.starts.length; r++) {
+	    if (!this.quoted.isEmpty()) {
+		final String [] q = this.quoted.get(r);
+		if (q!=null) {
+		    if (field<q.length) c.add(q[field]);
+		    continue;
+		}
+	    }
+	    int p = this.starts[r], i = 0;
+	    while (true) {
+		int q = p;
+		byte b = 0;
+		while (q<this.limit && (b=this.buf.get(q))!=',' &&
+		    b!='\n' && b!='\r') q++;
+		if (i==field) {
+		    addCell(c, p, q);
+		    break;
+		}
+		if (q>=this.limit || b!=',') break;
+		i++;
+		p = q+1;
+	    }
+	}
+    }
+
+    private void addCell(Dataset.Column c, int start, int end) {
+	// keep printable ascii only, like Column.add()
+	if (this.cell.length < end-start)
+	    this.cell = new byte[(end-start)*2];
+	int n = 0;
+	for (int p=start; p<end; p++) {
+	    final byte b = this.buf.get(p);
+	    if (b>=0x20 && b<0x7f) this.cell[n++]=b;
+	}
+	this.cellLen = n;
+
+	if (n==0) return;	// Double.valueOf("") fails, nothing appended
+
+	final double t = parseTime();
+	if (!Double.isNaN(t)) {
+	    c.data.append(t);
+	    return;
+	}
+
+	int s = 0, e = n;
+	while (s<e && this.cell[s]==' ') s++;
+	while (e>s && this.cell[e-1]==' ') e--;
+	if (!parseDouble(c, s, e))
+	    c.add(new String(this.cell, 0, n, this.charset));
+    }
+
+    private int digit(int i) {
+	final int d = this.cell[i]-'0';
+	return (d>=0 && d<=9)?d:-1;
+    }
+
+    private int twoDigits(int i) {
+	final int a = digit(i), b = digit(i+1);
+	if (a<0 || b<0) return -1;
+	return a*10+b;
+    }
+
+    /* "HH:mm:ss" or "HH:mm:ss.SSS", else NaN */
+    private double parseTime() {
+	final int n = this.cellLen;
+	if (n!=8 && n!=12) return Double.NaN;
+	if (this.cell[2]!=':' || this.cell[5]!=':') return Double.NaN;
+	final int h = twoDigits(0), m = twoDigits(3), s = twoDigits(6);
+	if (h<0 || m<0 || s<0) return Double.NaN;
+	long ms = h*3600000L + m*60000L + s*1000L;
+	if (n==12) {
+	    // other separators are left to SimpleDateFormat
+	    if (this.cell[8]!='.') return Double.NaN;
+	    final int a = digit(9), b = digit(10), d = digit(11);
+	    if (a<0 || b<0 || d<0) return Double.NaN;
+	    ms += a*100 + b*10 + d;
+	}
+	return (double)(this.timeBase + ms)/1000;
+    }
+
+    /*
+     * Plain decimal numbers only.  Values that can't be converted exactly
+     * with one multiply or divide return false and get the slow path.
+     */
+    private boolean parseDouble(Dataset.Column c, int s, int e) {
+	if (s>=e) return false;
+	boolean neg = false;
+	if (this.cell[s]=='-' || this.cell[s]=='+') {
+	    neg = this.cell[s]=='-';
+	    s++;
+	}
+	long mant = 0;
+	int scale = 0, digits = 0;
+	boolean dot = false;
+	for (; s<e; s++) {
+	    final byte b = this.cell[s];
+	    if (b>='0' && b<='9') {
+		if (mant >= MAX_EXACT/10) return false;
+		mant = mant*10 + (b-'0');
+		if (dot) scale++;
+		digits++;
+	    } else if (b=='.' && !dot) {
+		dot = true;
+	    } else if (b=='e' || b=='E') {
+		break;
+	    } else {
+		return false;
+	    }
+	}
+	if (digits==0) return false;
+	if (s<e) {
+	    // exponent
+	    s++;
+	    boolean eneg = false;
+	    if (s<e && (this.cell[s]=='-' || this.cell[s]=='+')) {
+		eneg = this.cell[s]=='-';
+		s++;
+	    }
+	    if (s>=e) return false;
+	    int exp = 0;
+	    for (; s<e; s++) {
+		final byte b = this.cell[s];
+		if (b<'0' || b>'9' || exp>1000) return false;
+		exp = exp*10 + (b-'0');
+	    }
+	    scale += eneg?exp:-exp;
+	}
+	double d = mant;
+	if (scale>0) {
+	    if (scale>=POW10.length) return false;
+	    d /= POW10[scale];
+	} else if (scale<0) {
+	    if (-scale>=POW10.length) return false;
+	    d *= POW10[-scale];
+	}
+	c.data.append(neg?-d:d);
+	return true;
+    }
+}
@@ -23,6 +23,10 @@ public class HexValue implements Comparable<Object> {
 
     public boolean equals(HexValue v) { return (v.v==this.v); }
     public boolean equals(int v) { return (v==this.v); }
+    public boolean equals(Object o) {
+	return (o instanceof HexValue) && ((HexValue)o).v==this.v;
+    }
+    public int hashCode() { return this.v; }
     public int compareTo(Object o) {
 	return (new Integer(v).compareTo(((HexValue)o).v));
     }
@@ -0,0 +1,172 @@
+package org.nyet.mappack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/*
+ * Compares two images through the maps of a mappack.  Byte ranges are
+ * compared a long at a time, so only maps whose bytes differ are ever
+ * decoded, and an unchanged 1 MB pair is a few thousand compares.
+ */
+public class ImageDiff {
+    private final ByteBuffer a;
+    private final ByteBuffer b;
+    private final int limit;	// compare up to the shorter image
+
+    public class Cell {
+	public final int row, col;
+	public final double from, to;
+	private Cell(int row, int col, double from, double to) {
+	    this.row = row;
+	    this.col = col;
+	    this.from = from;
+	    this.to = to;
+	}
+    }
+
+    public class Change {
+	public final Map map;
+	public final Map data;		// map, or one of its axes
+	public final String label;
+	public final int cells;		// in the whole of data
+	public final ArrayList<Cell> changed = new ArrayList<Cell>();
+	private Change(Map map, Map data, String label, int cells) {
+	    this.map = map;
+	    this.data = data;
+	    this.label = label;
+	    this.cells = cells;
+	}
+    }
+
+    public ImageDiff(ByteBuffer a, ByteBuffer b) {
+	this.a = a;
+	this.b = b;
+	this.limit = Math.min(a.limit(), b.limit());
+    }
+
+    public static boolean equal(ByteBuffer a, ByteBuffer b, int from, int to) {
+	int i = from;
+	for(; i+8<=to; i+=8) if(a.getLong(i)!=b.getLong(i)) return false;
+	for(; i<to; i++) if(a.get(i)!=b.get(i)) return false;
+	return true;
+    }
+
+    /* the [start, end) runs of differing bytes in [from, to) */
+    public static ArrayList<int[]> ranges(ByteBuffer a, ByteBuffer b, int from,
+	int to) {
+	final ArrayList<int[]> out = new ArrayList<int[]>();
+	int i = from;
+	while(i<to) {
+	    while(i+8<=to && a.getLong(i)==b.getLong(i)) i+=8;
+	    if(i>=to) break;
+	    if(a.get(i)==b.get(i)) { i++; continue; }
+	    final int start = i;
+	    while(i<to && a.get(i)!=b.get(i)) i++;
+	    out.add(new int[] { start, i });
+	}
+	return out;
+    }
+
+    private static int[] extent(Map m) {
+	final int start = m.extent[0].v;
+	return new int[] { start,
+	    start + m.size.x*m.size.y*m.value.type.width() };
+    }
+
+    private Change diff(Map owner, Map m, String label) {
+	final int[] e = extent(m);
+	if(e[0]<0 || e[1]>this.limit || equal(this.a, this.b, e[0], e[1]))
+	    return null;
+
+	final MapData from = new MapData(m, this.a);
+	final MapData to = new MapData(m, this.b);
+	final Change c = new Change(owner, m, label, from.rows()*from.cols());
+	for(int i=0;i<from.rows();i++) {
+	    for(int j=0;j<from.cols();j++) {
+		final double x = from.get(i, j), y = to.get(i, j);
+		if(Double.compare(x, y)!=0) c.changed.add(new Cell(i, j, x, y));
+	    }
+	}
+	return c;
+    }
+
+    /* every map, and every axis stored in the image, that differs */
+    public ArrayList<Change> changes(Project p) {
+	final ArrayList<Change> out = new ArrayList<Change>();
+	for(Map m: p.maps()) {
+	    Change c = diff(m, m, "");
+	    if(c!=null) out.add(c);
+	    final Map x = m.xAxis(), y = m.yAxis();
+	    if(x!=null && (c = diff(m, x, " x axis"))!=null) out.add(c);
+	    if(y!=null && (c = diff(m, y, " y axis"))!=null) out.add(c);
+	}
+	return out;
+    }
+
+    /* differing byte runs that no map or axis covers */
+    public ArrayList<int[]> unmapped(Project p) {
+	final ArrayList<int[]> covered = new ArrayList<int[]>();
+	for(Map m: p.maps()) {
+	    covered.add(extent(m));
+	    final Map x = m.xAxis(), y = m.yAxis();
+	    if(x!=null) covered.add(extent(x));
+	    if(y!=null) covered.add(extent(y));
+	}
+	final int[][] c = covered.toArray(new int[covered.size()][]);
+	Arrays.sort(c, new Comparator<int[]>() {
+	    public int compare(int[] x, int[] y) {
+		return x[0]<y[0]?-1:(x[0]>y[0]?1:0);
+	    }
+	});
+
+	final ArrayList<int[]> out = new ArrayList<int[]>();
+	int pos = 0;
+	for(int[] e: c) {
+	    if(e[0]>pos) out.addAll(ranges(this.a, this.b, pos,
+		Math.min(e[0], this.limit)));
+	    pos = Math.max(pos, e[1]);
+	    if(pos>=this.limit) break;
+	}
+	if(pos<this.limit) out.addAll(ranges(this.a, this.b, pos, this.limit));
+	return out;
+    }
+
+    private static String format(Map m, double v) {
+	if(m.value.precision==0) return String.format("%d", (long)Math.floor(v+.5));
+	return String.format("%." + m.value.precision + "f", v);
+    }
+
+    public void write(Appendable out, Project p, boolean unmapped)
+	throws IOException {
+	final ArrayList<Change> changes = changes(p);
+	for(Change c: changes) {
+	    out.append(String.format("%s @%s \"%s\"%s: %d of %d cells\n",
+		c.map.id, c.map.extent[0], c.map.name, c.label,
+		c.changed.size(), c.cells));
+	    for(Cell cell: c.changed) {
+		out.append(String.format("  [%d,%d] %s -> %s (%s)\n",
+		    cell.row, cell.col, format(c.data, cell.from),
+		    format(c.data, cell.to), format(c.data, cell.to-cell.from)));
+	    }
+	}
+
+	int bytes = 0;
+	if(unmapped) {
+	    for(int[] r: unmapped(p)) {
+		out.append(String.format("unmapped 0x%x-0x%x (%d bytes)\n",
+		    r[0], r[1], r[1]-r[0]));
+		bytes += r[1]-r[0];
+	    }
+	}
+	if(this.a.limit()!=this.b.limit())
+	    out.append(String.format("image sizes differ: 0x%x vs 0x%x\n",
+		this.a.limit(), this.b.limit()));
+
+	out.append(String.format("%d changes in %d maps%s\n",
+	    changes.size(), p.numMaps,
+	    unmapped?String.format(", %d unmapped bytes", bytes):""));
+    }
+}
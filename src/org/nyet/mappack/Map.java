@@ -1,6 +1,7 @@
 package org.nyet.mappack;
 
 import java.util.Arrays;
+import java.util.Formatter;
 import java.util.LinkedHashMap;
 import java.nio.ByteBuffer;
 
@@ -81,6 +82,9 @@ public class Map implements Comparable<Object> {
 	public boolean isLE() {
 	    return (this.enm>1 && (this.enm & 1)==1);
 	}
+	public boolean isFloat() {
+	    return (this.enm==6 || this.enm==7);
+	}
 	public int width() { return this.width; }
     }
 
@@ -154,15 +158,13 @@ public class Map implements Comparable<Object> {
 
 	public double convert(double in) { return in*factor+offset; }
 
-	public String eqOldXDF (int off, String tag) {
-	    String out="";
+	public void eqOldXDF (Formatter f, int off, String tag) {
 	    if(this.factor != 1 || this.offset != 0) {
-		out += String.format(XDF_LBL+"%f * X", off, tag, this.factor);
+		f.format(XDF_LBL+"%f * X", off, tag, this.factor);
 		if(this.offset!=0)
-		    out += String.format("+ %f",this.offset);
-		out+=",TH|0|0|0|0|\n";
+		    f.format("+ %f",this.offset);
+		f.format(",TH|0|0|0|0|\n");
 	    }
-	    return out;
 	}
 
 	public String eqXDF () {
@@ -309,9 +311,7 @@ public class Map implements Comparable<Object> {
 	}
 
 	// Axis.toXDF()
-	public String toXDF(XmlString xs) {
-	    int xsAt=xs.length();
-
+	public void toXDF(XmlString xs) {
 	    if (!isZ)
 		xs.append("XDFAXIS id=\"" + this.name + "\" uniqueid=\"0x0\"");
 	    else
@@ -393,7 +393,6 @@ public class Map implements Comparable<Object> {
 	    }
 	    xs.unindent();
 	    xs.append("/XDFAXIS");
-	    return xs.subSequence(xsAt, xs.length()).toString();
 	}
 
 	private void genLabelsXDF(XmlString xs) {
@@ -434,6 +433,7 @@ public class Map implements Comparable<Object> {
     public int base;
     public int folderId;
     public String id;
+    private String stem = "";	// id up to the first '?' or ' '
     private int header1;		// unk
     private byte header1a;		// unk
     private int header1b;		// unk v2
@@ -489,6 +489,7 @@ public class Map implements Comparable<Object> {
 	base = b.getInt();
 	folderId = b.getInt();
 	id = Parse.string(b);
+	stem = stem(id);
 	header1 = b.getInt();		// unk
 	header1a = b.get();		// unk
 	if (kpv == Map.INPUT_KP_v2)
@@ -529,6 +530,56 @@ public class Map implements Comparable<Object> {
 		Arrays.toString(term2), this);
     }
 
+    // the smallest record skip() gets past: v1, every string empty, no
+    // axis header4
+    static final int MIN_RECORD = 1+4+6*4+4+5+(16+32+4+8+8+4)+24+32+
+	2*(24+5*4+7+4+8)+(4+2+20+14+4+1+24+8)+3;
+
+    /*
+     * Step over one map record without building it, so a project can
+     * find where every record starts before decoding them in parallel.
+     * This has to follow the constructor field for field.
+     */
+    public static void skip(ByteBuffer b, int kpv) throws ParserException {
+	final boolean v2 = (kpv == Map.INPUT_KP_v2);
+	Parse.skip(b, 1);			// header0
+	if (v2) {
+	    Parse.skip(b, 4);			// header0a
+	    Parse.skipString(b);		// comment
+	    Parse.skip(b, 1);			// header0b
+	}
+	Parse.skipString(b);			// name
+	Parse.skip(b, 6*4);			// organization .. folderId
+	Parse.skipString(b);			// id
+	Parse.skip(b, v2?9:5);			// header1, header1a, header1b
+	Parse.skip(b, 16+32+4+8+8+4);		// range .. precision
+	skipValue(b);
+	Parse.skip(b, v2?40:32);		// extent .. header7
+	skipAxis(b, v2);			// x
+	skipAxis(b, v2);			// y
+	Parse.skip(b, 4+2+20+14+4+1+24+8);	// header8 .. header11
+	Parse.skip(b, 3);			// term2
+    }
+
+    private static void skipValue(ByteBuffer b) throws ParserException {
+	Parse.skipString(b);			// description
+	Parse.skipString(b);			// units
+	Parse.skip(b, 16);			// factor, offset
+    }
+
+    private static void skipAxis(ByteBuffer b, boolean v2) throws ParserException {
+	skipValue(b);
+	Parse.skip(b, 5*4);			// datasource .. base
+	if (v2) Parse.skip(b, 12);		// header1a
+	Parse.skip(b, 7);			// header2 .. sign
+	int header4_size = b.getInt();
+	if (header4_size<0)
+	    throw new ParserException(b, "axis: negative header4 size",
+		header4_size);
+	Parse.skip(b, (header4_size/4)*4);	// header4
+	Parse.skip(b, 8);			// header5, signature
+    }
+
     // generate a 1d map for an axis
     public Map(Axis axis, int size) {
 	this.extent[0] = axis.addr;
@@ -536,6 +587,17 @@ public class Map implements Comparable<Object> {
 	this.size = new Dimension(1, size);
     }
 
+    // the axes of a table that are stored in the image, as 1d maps; a
+    // 1d table keeps its one axis in either, as long as the table
+    public Map xAxis() { return axisMap(this.x_axis, this.size.x); }
+    public Map yAxis() { return axisMap(this.y_axis, this.size.y); }
+    private Map axisMap(Axis axis, int len) {
+	if(!this.organization.isTable() || axis.addr==null) return null;
+	if(this.organization.is1D() || this.size.y<=1)
+	    len = this.size.x*this.size.y;
+	return new Map(axis, len);
+    }
+
     // Map methods
     public static final String CSVHeader() {
 	final String[] header = {
@@ -548,19 +610,30 @@ public class Map implements Comparable<Object> {
 	return out.toString();
     }
 
+    public static String stem(String id) {
+	for(int i=0; i<id.length(); i++) {
+	    final char c = id.charAt(i);
+	    if(c=='?' || c==' ') return id.substring(0, i);
+	}
+	return id;
+    }
+    public String stem() { return this.stem; }
+    int index() { return this.index; }
+
     public boolean equals(Map map) {
-	String stem=map.id.split("[? ]")[0];
-	if(stem.length()==0) return false;
-	return equals(stem);
+	if(map.stem.length()==0) return false;
+	return equals(map.stem);
     }
 
     public boolean equals(String id) {
-	if(id.length()==0 || this.id.length() == 0) return false;
-	return (id.equals(this.id.split("[? ]")[0]));
+	if(id.length()==0) return false;
+	return (id.equals(this.stem));
     }
 
     // swap x and y; tunerpro crashes on Cols > 256
+    private boolean swapped = false;
     private void swapXY() {
+	this.swapped = !this.swapped;
 	Axis tmpa = this.y_axis;
 	this.y_axis = this.x_axis;
 	this.x_axis = tmpa;
@@ -588,13 +661,41 @@ public class Map implements Comparable<Object> {
     public String toString() { return this.toStringDump(); }
     public String toString(int format, ByteBuffer image)
 	throws Exception {
+	StringBuilder out = new StringBuilder();
+	write(out, format, image);
+	return out.toString();
+    }
+
+    // one map at a time, built up locally and handed to out in one piece
+    /*
+     * The xdf writers swap x and y for wide tables; that is undone after
+     * each write, so every format sees the map as parsed and several
+     * threads can write the same map.
+     */
+    public synchronized void write(Appendable out, int format,
+	ByteBuffer image) throws Exception {
 	switch(format) {
-	    case FORMAT_DUMP: return toStringDump();
-	    case FORMAT_CSV: return toStringCSV(image);
-	    case FORMAT_OLD_XDF: return toStringOldXDF(image);
-	    case FORMAT_XDF: return toStringXDF(image);
+	    case FORMAT_DUMP: out.append(toStringDump()); break;
+	    case FORMAT_CSV: out.append(toStringCSV(image)); break;
+	    case FORMAT_OLD_XDF:
+		StringBuilder sb = new StringBuilder(1024);
+		try {
+		    writeOldXDF(new Formatter(sb), image);
+		} finally {
+		    if (this.swapped) swapXY();
+		}
+		out.append(sb);
+		break;
+	    case FORMAT_XDF:
+		sb = new StringBuilder(2048);
+		try {
+		    writeXDF(new XmlString(sb, 1), image);
+		} finally {
+		    if (this.swapped) swapXY();
+		}
+		out.append(sb);
+		break;
 	}
-	return "";
     }
 
     private String toStringCSV(ByteBuffer image) throws Exception {
@@ -630,11 +731,11 @@ public class Map implements Comparable<Object> {
 	return Strings.join(",", out);
     }
 
-    private String toStringOldXDF(ByteBuffer image) throws Exception {
+    private void writeOldXDF(Formatter f, ByteBuffer image) throws Exception {
 	boolean table = this.organization.isTable();
 	boolean oneD = this.organization.is1D() || this.size.y<=1;
-	String out = table?"%%TABLE%%\n":"%%CONSTANT%%\n";
-	out += String.format(XDF_LBL+"0x%X\n",100,"Cat0ID",this.folderId+1);
+	f.out().append(table?"%%TABLE%%\n":"%%CONSTANT%%\n");
+	f.format(XDF_LBL+"0x%X\n",100,"Cat0ID",this.folderId+1);
 	int off = table?40000:20000;
 	String title = "";
 	String desc = "";
@@ -645,30 +746,30 @@ public class Map implements Comparable<Object> {
 	    title = this.name;
 	}
 
-	out += String.format(XDF_LBL+"\"%s\"\n",off+5,"Title",title);
+	f.format(XDF_LBL+"\"%s\"\n",off+5,"Title",title);
 
 	if(desc.length()>0) {
-	    out += String.format(XDF_LBL+"\"%s\"\n",off+10,"Desc",desc);
-	    out += String.format(XDF_LBL+"0x%X\n",off+11,"DescSize",
+	    f.format(XDF_LBL+"\"%s\"\n",off+10,"Desc",desc);
+	    f.format(XDF_LBL+"0x%X\n",off+11,"DescSize",
 		    desc.length()+1);
 	}
 
 	if(this.value.units.length()>0) {
 	    if(table)
-		out += String.format(XDF_LBL+"\"%s\"\n",off+330,"ZUnits",
+		f.format(XDF_LBL+"\"%s\"\n",off+330,"ZUnits",
 			this.value.units);
 	    else
-		out += String.format(XDF_LBL+"\"%s\"\n",off+20,"Units",
+		f.format(XDF_LBL+"\"%s\"\n",off+20,"Units",
 			this.value.units);
 	}
 
 	if(this.value.type.width()>1) {
-	    out += String.format(XDF_LBL+"0x%X\n",off+50,"SizeInBits",
+	    f.format(XDF_LBL+"0x%X\n",off+50,"SizeInBits",
 		    this.value.type.width()*8);
 	}
 
 	if(this.value.precision!=2) {
-	    out += String.format(XDF_LBL+"0x%X\n",off+210,"DecimalPl",
+	    f.format(XDF_LBL+"0x%X\n",off+210,"DecimalPl",
 		    this.value.precision);
 	}
 
@@ -684,10 +785,10 @@ public class Map implements Comparable<Object> {
 	int flags = this.value.sign?1:0;
 	if (this.value.type.isLE()) flags |= 2;
 
-	out += String.format(XDF_LBL+"0x%X\n",off+100,"Address",
+	f.format(XDF_LBL+"0x%X\n",off+100,"Address",
 		this.extent[0].v);
 
-	out += this.value.eqOldXDF(off+200, table?"ZEq":"Equation");
+	this.value.eqOldXDF(f, off+200, table?"ZEq":"Equation");
 
 	if(table) {
 	    // swap x and y; tunerpro crashes on Cols > 256
@@ -699,30 +800,30 @@ public class Map implements Comparable<Object> {
 	    if (this.x_axis.value.type.isLE()) flags |= 0x100;
 
 	    // 300s
-	    out += String.format(XDF_LBL+"0x%X\n", off+305, "Cols",
+	    f.format(XDF_LBL+"0x%X\n", off+305, "Cols",
 		this.size.x);
-	    out += String.format(XDF_LBL+"\"%s\"\n", off+320, "XUnits",
+	    f.format(XDF_LBL+"\"%s\"\n", off+320, "XUnits",
 		this.x_axis.value.units);
-	    out += String.format(XDF_LBL+"0x%X\n", off+352,
+	    f.format(XDF_LBL+"0x%X\n", off+352,
 		"XLabelType", x_axis.value.precision==0?2:1);
 
 	    if(this.x_axis.datasource.isOrdinal() && this.size.x>1) {
-		out += String.format(XDF_LBL+"%s\n", off+350, "XLabels",
+		f.format(XDF_LBL+"%s\n", off+350, "XLabels",
 			ordinalArray(this.size.x));
-		out += String.format(XDF_LBL+"0x%X\n", off+352, "XLabelType", 2);
+		f.format(XDF_LBL+"0x%X\n", off+352, "XLabelType", 2);
 	    } else if(this.x_axis.addr!=null) {
-		out += this.x_axis.value.eqOldXDF(off+354, "XEq");
+		this.x_axis.value.eqOldXDF(f, off+354, "XEq");
 		// 500s
-		out += String.format(XDF_LBL+"0x%X\n", off+505, "XLabelSource", 1);
+		f.format(XDF_LBL+"0x%X\n", off+505, "XLabelSource", 1);
 		// 600s
-		out += String.format(XDF_LBL+"0x%X\n", off+600, "XAddress",
+		f.format(XDF_LBL+"0x%X\n", off+600, "XAddress",
 		    this.x_axis.addr.v);
-		out += String.format(XDF_LBL+"%d\n", off+610, "XDataSize",
+		f.format(XDF_LBL+"%d\n", off+610, "XDataSize",
 		    this.x_axis.value.type.width());
-		out += String.format(XDF_LBL+"%d\n", off+620, "XAddrStep",
+		f.format(XDF_LBL+"%d\n", off+620, "XAddrStep",
 		    this.x_axis.value.type.width());
 		if(x_axis.value.precision!=2) {
-		    out += String.format(XDF_LBL+"0x%X\n", off+650,
+		    f.format(XDF_LBL+"0x%X\n", off+650,
 			"XOutputDig", x_axis.value.precision);
 		}
 	    }
@@ -732,71 +833,71 @@ public class Map implements Comparable<Object> {
 	    if (this.y_axis.value.type.isLE()) flags |= 0x200;
 
 	    // 300s
-	    out += String.format(XDF_LBL+"0x%X\n", off+300, "Rows",
+	    f.format(XDF_LBL+"0x%X\n", off+300, "Rows",
 		this.size.y);
-	    out += String.format(XDF_LBL+"\"%s\"\n", off+325, "YUnits",
+	    f.format(XDF_LBL+"\"%s\"\n", off+325, "YUnits",
 		this.y_axis.value.units);
 	    // LabelType 0x1 = float, 0x2 = integer, 0x4 = string
-	    out += String.format(XDF_LBL+"0x%X\n", off+362,
+	    f.format(XDF_LBL+"0x%X\n", off+362,
 		"YLabelType", y_axis.value.precision==0?2:1);
 
 	    if(this.y_axis.datasource.isOrdinal() && this.size.y>1 ) {
-		out += String.format(XDF_LBL+"%s\n", off+360, "YLabels",
+		f.format(XDF_LBL+"%s\n", off+360, "YLabels",
 			ordinalArray(this.size.y));
-		out += String.format(XDF_LBL+"0x%X\n", off+362, "YLabelType", 2);
+		f.format(XDF_LBL+"0x%X\n", off+362, "YLabelType", 2);
 	    } else if(this.y_axis.addr!=null) {
-		out += this.y_axis.value.eqOldXDF(off+364, "YEq");
+		this.y_axis.value.eqOldXDF(f, off+364, "YEq");
 		// 500s
-		out += String.format(XDF_LBL+"0x%X\n", off+515, "YLabelSource", 1);
+		f.format(XDF_LBL+"0x%X\n", off+515, "YLabelSource", 1);
 		// 700s
-		out += String.format(XDF_LBL+"0x%X\n", off+700, "YAddress",
+		f.format(XDF_LBL+"0x%X\n", off+700, "YAddress",
 		    this.y_axis.addr.v);
-		out += String.format(XDF_LBL+"%d\n", off+710, "YDataSize",
+		f.format(XDF_LBL+"%d\n", off+710, "YDataSize",
 		    this.y_axis.value.type.width());
-		out += String.format(XDF_LBL+"%d\n", off+720, "YAddrStep",
+		f.format(XDF_LBL+"%d\n", off+720, "YAddrStep",
 		    this.y_axis.value.type.width());
 		if(y_axis.value.precision!=2) {
-		    out += String.format(XDF_LBL+"0x%X\n", off+750,
+		    f.format(XDF_LBL+"0x%X\n", off+750,
 			"YOutputDig", y_axis.value.precision);
 		}
 	    }
 	}
-	out += String.format(XDF_LBL+"0x%X\n",off+150,"Flags", flags);
+	f.format(XDF_LBL+"0x%X\n",off+150,"Flags", flags);
 
 	if(false && image!=null && image.limit()>0) {
 	    MapData mapdata = new MapData(this, image);
 	    if(table && this.x_axis.addr!=null) {
 		MapData xaxis = new MapData(new Map(this.x_axis, this.size.x),
 			image);
-		out += String.format(XDF_LBL+"%s\n", off+350, "XLabels",
+		f.format(XDF_LBL+"%s\n", off+350, "XLabels",
 			xaxis.toString());
 		// LabelType 0x1 = float, 0x2 = integer, 0x4 = string
-		out += String.format(XDF_LBL+"0x%X\n", off+352,
+		f.format(XDF_LBL+"0x%X\n", off+352,
 		    "XLabelType", x_axis.value.precision==0?2:1);
 		if(!oneD && this.y_axis.addr!=null) {
 		    MapData yaxis = new MapData(new Map(this.y_axis,
 				this.size.y), image);
-		    out += String.format(XDF_LBL+"%s\n", off+360, "YLabels",
+		    f.format(XDF_LBL+"%s\n", off+360, "YLabels",
 			    yaxis.toString());
 		}
 	    }
 	    /*
-	    out += String.format(XDF_LBL+"%f\n", off+230, "RangeLow",
+	    f.format(XDF_LBL+"%f\n", off+230, "RangeLow",
 		mapdata.getMinimumValue());
-	    out += String.format(XDF_LBL+"%f\n", off+240, "RangeHigh",
+	    f.format(XDF_LBL+"%f\n", off+240, "RangeHigh",
 		mapdata.getMaximumValue());
 	    */
 	}
 
 	if(oneD) {
 	    // LabelType 0x1 = float, 0x2 = integer, 0x4 = string
-	    out += String.format(XDF_LBL+"%s\n", off+360, "YLabels",
+	    f.format(XDF_LBL+"%s\n", off+360, "YLabels",
 		this.y_axis.value.units);
-	    out += String.format(XDF_LBL+"0x%X\n", off+362,
+	    f.format(XDF_LBL+"0x%X\n", off+362,
 		"YLabelType", 4);
 	}
 
-	return out + "%%END%%\n";
+	f.out().append("%%END%%\n");
     }
 
     private void tableToXDF(XmlString xs) {
@@ -836,11 +937,10 @@ public class Map implements Comparable<Object> {
 	this.value.doMathXDF(xs);
     }
 
-    private String toStringXDF(ByteBuffer image) throws Exception {
+    private void writeXDF(XmlString xs, ByteBuffer image) throws Exception {
 	boolean table = this.organization.isTable();
 	String tag;
 
-	XmlString xs = new XmlString(1);
 	if (table) {
 	    tag = "XDFTABLE";
 	    xs.append("XDFTABLE uniqueid=\"0x0\" flags=\"0x0\"");
@@ -866,7 +966,7 @@ public class Map implements Comparable<Object> {
 	else constantToXDF(xs);
 
 	xs.unindent();
-	return xs.append("/" + tag).toString();
+	xs.append("/" + tag);
     }
 
     public String toStringDump() {
@@ -1,65 +1,143 @@
 package org.nyet.mappack;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
-import org.nyet.util.Unsigned;
-import org.nyet.util.Signed;
 import org.nyet.util.Strings;
 
+/*
+ * Map cells decoded in one pass through a typed view of the image, in
+ * the map's own byte order.  Cells are kept in one flat double[],
+ * data[i][j] of the old layout is get(i, j), i over size.x.
+ */
 public class MapData {
-    private Double[][] data;
+    private final double[] data;
+    private final int rows, cols;
     private long maximum = Long.MIN_VALUE;
     private long minimum = Long.MAX_VALUE;
+    private double maxValue = Double.NEGATIVE_INFINITY;
+    private double minValue = Double.POSITIVE_INFINITY;
     private Map map;
-    private long widthmask = 0xffffffff;
+    private long widthmask = 0xffffffffL;
+
+    /* no copy, a run of cells with a fixed stride */
+    public class Slice {
+	private final int offset, stride, length;
+	private Slice(int offset, int stride, int length) {
+	    this.offset = offset;
+	    this.stride = stride;
+	    this.length = length;
+	}
+	public int size() { return this.length; }
+	public double get(int k) {
+	    if(k<0 || k>=this.length)
+		throw new ArrayIndexOutOfBoundsException(k);
+	    return data[this.offset + k*this.stride];
+	}
+	public double[] toArray() {
+	    double[] out = new double[this.length];
+	    for(int k=0;k<this.length;k++) out[k]=data[this.offset+k*this.stride];
+	    return out;
+	}
+    }
 
     public MapData(Map map, ByteBuffer b) {
 	this.map = map;
-	b.position(map.extent[0].v);
-	data = new Double[map.size.x][map.size.y];
-	widthmask = (1<<(map.value.type.width()*8))-1;
-	for(int i=0;i<map.size.x;i++) {
-	    for(int j=0;j<map.size.y;j++) {
-		long out;
-		if (map.value.sign) {
-		    switch(map.value.type.width()) {
-			case 1: out=Signed.getSignedByte(b); break;
-			case 2: out=Signed.getSignedShort(b); break;
-			case 4: out=Signed.getSignedInt(b); break;
-			default: data[i][j]=Double.NaN; continue;
-		    }
-		} else {
-		    switch(map.value.type.width()) {
-			case 1: out=Unsigned.getUnsignedByte(b); break;
-			case 2: out=Unsigned.getUnsignedShort(b); break;
-			case 4: out=Unsigned.getUnsignedInt(b); break;
-			default: data[i][j]=Double.NaN; continue;
-		    }
+	final Map.ValueType type = map.value.type;
+	final int w = type.width();
+	final int n = map.size.x*map.size.y;
+	this.rows = map.size.x;
+	this.cols = map.size.y;
+	this.data = new double[n];
+	if (w<8) this.widthmask = (1L<<(w*8))-1;
+
+	// don't move the caller's position, and read in the map's byte order
+	final ByteBuffer bb = b.duplicate();
+	bb.position(map.extent[0].v);
+	bb.order(type.isLE()?ByteOrder.LITTLE_ENDIAN:ByteOrder.BIG_ENDIAN);
+	final boolean sign = map.value.sign;
+
+	switch(w) {
+	    case 1: {
+		final byte[] a = new byte[n];
+		bb.get(a);
+		for(int i=0;i<n;i++) add(i, sign?a[i]:a[i]&0xff);
+		break;
+	    }
+	    case 2: {
+		final short[] a = new short[n];
+		bb.slice().order(bb.order()).asShortBuffer().get(a);
+		for(int i=0;i<n;i++) add(i, sign?a[i]:a[i]&0xffff);
+		break;
+	    }
+	    case 4: {
+		if (type.isFloat()) {
+		    final float[] a = new float[n];
+		    bb.slice().order(bb.order()).asFloatBuffer().get(a);
+		    for(int i=0;i<n;i++) addFloat(i, a[i]);
+		    break;
 		}
-		if(maximum<out) maximum = out;
-		if(minimum>out) minimum = out;
-		data[i][j]=map.value.convert(out);
+		final int[] a = new int[n];
+		bb.slice().order(bb.order()).asIntBuffer().get(a);
+		for(int i=0;i<n;i++) add(i, sign?a[i]:a[i]&0xffffffffL);
+		break;
 	    }
+	    default:
+		java.util.Arrays.fill(this.data, Double.NaN);
+	}
+    }
+
+    private void add(int i, long raw) {
+	if(maximum<raw) maximum = raw;
+	if(minimum>raw) minimum = raw;
+	data[i]=map.value.convert(raw);
+    }
+
+    // raw min/max of a float map are the bits of the min/max cell
+    private void addFloat(int i, float raw) {
+	if(maxValue<raw) {
+	    maxValue = raw;
+	    maximum = Float.floatToRawIntBits(raw);
+	}
+	if(minValue>raw) {
+	    minValue = raw;
+	    minimum = Float.floatToRawIntBits(raw);
 	}
+	data[i]=map.value.convert(raw);
+    }
+
+    public double getMaximumValue() {
+	if(this.map.value.type.isFloat())
+	    return this.map.value.convert(this.maxValue);
+	return this.map.value.convert(this.maximum);
+    }
+    public double getMinimumValue() {
+	if(this.map.value.type.isFloat())
+	    return this.map.value.convert(this.minValue);
+	return this.map.value.convert(this.minimum);
     }
-    public double getMaximumValue() { return this.map.value.convert(this.maximum); }
-    public double getMinimumValue() { return this.map.value.convert(this.minimum); }
     public long getMaximum() { return this.maximum & widthmask; }
     public long getMinimum() { return this.minimum & widthmask; }
-    public Double[][] get() { return this.data; }
+
+    public int rows() { return this.rows; }
+    public int cols() { return this.cols; }
+    public double get(int i, int j) { return this.data[i*this.cols+j]; }
+    public Slice row(int i) { return new Slice(i*this.cols, 1, this.cols); }
+    public Slice column(int j) { return new Slice(j, this.cols, this.rows); }
+
     public String toString() {
-	String[] rows = new String[data.length];
-	for(int i=0;i<data.length;i++) {
-	    String[] row = new String[data[i].length];
-	    for(int j=0;j<data[i].length;j++) {
+	String[] out = new String[rows];
+	for(int i=0;i<rows;i++) {
+	    String[] row = new String[this.cols];
+	    for(int j=0;j<this.cols;j++) {
 		if(this.map.value.precision==0)
-		    row[j] = String.format("%d", (int)(data[i][j]+.5));
+		    row[j] = String.format("%d", (int)(get(i,j)+.5));
 		else
-		    row[j] = String.format("%." + this.map.value.precision +"f", data[i][j]);
+		    row[j] = String.format("%." + this.map.value.precision +"f", get(i,j));
 	    }
-	    rows[i]=Strings.join(",", row);
+	    out[i]=Strings.join(",", row);
 	}
-	if(data.length==1) return rows[0];
-	return "["+Strings.join("],\n[", rows)+"]";
+	if(rows==1) return out[0];
+	return "["+Strings.join("],\n[", out)+"]";
     }
 }
@@ -1,6 +1,7 @@
 package org.nyet.mappack;
 
 import java.io.*;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 
 public class Parse {
@@ -27,6 +28,27 @@ public class Parse {
 	}
     }
 
+    // same checks as string(), without building the String
+    public static final void skipString(ByteBuffer b) throws ParserException {
+	b.mark();
+	int len = b.getInt();
+	if(len==0) return;
+	if(len<0) {
+	    b.reset();
+	    throw new ParserException(b, "string: negative len", len);
+	}
+	if(len>b.limit()-b.position()) {
+	    b.reset();
+	    throw new ParserException(b, "string: invalid len", len);
+	}
+	skip(b, len+1);
+    }
+
+    public static final void skip(ByteBuffer b, int len) {
+	if(len>b.remaining()) throw new BufferUnderflowException();
+	b.position(b.position()+len);
+    }
+
     public static final ByteBuffer buffer(ByteBuffer b, byte[] dst) {
 	b.get(dst, 0, dst.length);
 	return b;
@@ -0,0 +1,164 @@
+package org.nyet.mappack;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.nyet.util.Files;
+
+/*
+ * Keeps parsed mappacks on disk, keyed by the pack's path, size and
+ * mtime.  A hit memory maps the cache file instead of parsing the pack:
+ * nothing is inflated or scanned, and maps are only decoded when they are
+ * looked up, which is all a -r reference pack ever needs.  Least recently
+ * used files are dropped once the directory grows past its size limit.
+ *
+ * Everything is little endian, strings are written the way Parse.string
+ * reads them.
+ */
+public class ParseCache {
+    private static final int MAGIC = 0x3143504b;	// "KPC1"
+    private static final int FORMAT = 1;
+    private static final String EXT = ".kpc";
+
+    public static final String DIR_PROPERTY = "mappack.cache.dir";
+    public static final String SIZE_PROPERTY = "mappack.cache.size";
+    public static final long DEFAULT_SIZE = 64;	// MB
+
+    private final File dir;
+    private final long maxSize;
+
+    public ParseCache(File dir, long maxSize) {
+	this.dir = dir;
+	this.maxSize = maxSize;
+    }
+
+    /* from the system properties, null if mappack.cache.dir is set empty */
+    public static ParseCache getDefault() {
+	final String d = System.getProperty(DIR_PROPERTY,
+	    System.getProperty("user.home") + File.separator + ".mapdump" +
+	    File.separator + "cache");
+	if (d.length()==0) return null;
+	final long mb = Long.getLong(SIZE_PROPERTY, DEFAULT_SIZE);
+	return new ParseCache(new File(d), mb<<20);
+    }
+
+    public File getDir() { return this.dir; }
+    public long getMaxSize() { return this.maxSize; }
+
+    public Parser parse(String fname) throws Exception {
+	final File in = new File(fname);
+	if(!in.exists()) throw new Exception(fname + ": no such file");
+
+	final String path = in.getCanonicalPath();
+	final long length = in.length();
+	final long mTime = in.lastModified();
+	final File cache = new File(this.dir, Files.filenameStem(fname) + "-" +
+	    Integer.toHexString(path.hashCode()) + EXT);
+
+	if(cache.isFile()) {
+	    try {
+		final Parser p = new Parser(fname, cache, path, length, mTime);
+		cache.setLastModified(System.currentTimeMillis());
+		return p;
+	    } catch (Exception e) {
+		// stale, or from another version; rebuild it below
+	    }
+	}
+
+	final Parser p = new Parser(fname);
+	try {
+	    write(p, cache, path, length, mTime);
+	    prune();
+	} catch (IOException e) {
+	    // the cache is only ever an optimization
+	    System.err.println(cache + ": " + e.getMessage());
+	}
+	return p;
+    }
+
+    private void write(Parser p, File cache, String path, long length,
+	long mTime) throws IOException {
+	if(!this.dir.isDirectory() && !this.dir.mkdirs())
+	    throw new IOException("can't create " + this.dir);
+
+	// write it beside, then move it in, so a reader never sees half of it
+	final File tmp = File.createTempFile(Files.stem(cache.getName()), ".tmp",
+	    this.dir);
+	try {
+	    final DataOutputStream out = new DataOutputStream(
+		new BufferedOutputStream(new FileOutputStream(tmp), 1<<16));
+	    try {
+		putInt(out, MAGIC);
+		putInt(out, FORMAT);
+		putString(out, path);
+		putLong(out, length);
+		putLong(out, mTime);
+		p.writeCache(out);
+	    } finally {
+		out.close();
+	    }
+	    cache.delete();
+	    if(!tmp.renameTo(cache))
+		throw new IOException("can't rename " + tmp);
+	} finally {
+	    tmp.delete();
+	}
+    }
+
+    /* newest first, drop whatever doesn't fit */
+    private void prune() {
+	final File[] files = this.dir.listFiles();
+	if(files==null) return;
+	Arrays.sort(files, new Comparator<File>() {
+	    public int compare(File a, File b) {
+		final long d = b.lastModified() - a.lastModified();
+		return d<0?-1:(d>0?1:0);
+	    }
+	});
+	long total = 0;
+	for(File f: files) {
+	    if(!f.getName().endsWith(EXT)) continue;
+	    total += f.length();
+	    if(total > this.maxSize) f.delete();
+	}
+    }
+
+    static void checkKey(ByteBuffer b, String path, long length, long mTime)
+	throws ParserException {
+	if(b.getInt()!=MAGIC || b.getInt()!=FORMAT)
+	    throw new ParserException(b, "not a parse cache", path);
+	if(!Parse.string(b).equals(path) || b.getLong()!=length ||
+	    b.getLong()!=mTime)
+	    throw new ParserException(b, "stale parse cache", path);
+    }
+
+    static void putInt(DataOutputStream out, int v) throws IOException {
+	out.writeInt(Integer.reverseBytes(v));
+    }
+
+    static void putLong(DataOutputStream out, long v) throws IOException {
+	out.writeLong(Long.reverseBytes(v));
+    }
+
+    static void putString(DataOutputStream out, String s) throws IOException {
+	final byte[] b = s==null?new byte[0]:s.getBytes("ISO-8859-15");
+	putInt(out, b.length);
+	if(b.length==0) return;
+	out.write(b);
+	out.write(0);
+    }
+
+    static void putSection(DataOutputStream out, ByteBuffer s)
+	throws IOException {
+	final byte[] b = new byte[s.remaining()];
+	s.duplicate().get(b);
+	putInt(out, b.length);
+	out.write(b);
+    }
+}
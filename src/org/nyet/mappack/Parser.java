@@ -1,6 +1,9 @@
 package org.nyet.mappack;
 
 import java.util.*;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteOrder;
 import java.nio.ByteBuffer;
 
@@ -10,6 +13,7 @@ public class Parser extends MMapFile {
     private String signature;
     private String filename;
     private String version;
+    private int kpv;
 
     public ArrayList<Project> projects;
 
@@ -123,7 +127,6 @@ public class Parser extends MMapFile {
     public Parser (String fname) throws Exception {
 	super(fname, ByteOrder.LITTLE_ENDIAN);
 	int kp[] = new int[2];
-	int kpv;
 	ByteBuffer buf = this.getByteBuffer();
 	signature = Parse.string(buf);
 	kp[0] = buf.getInt();
@@ -154,6 +157,37 @@ public class Parser extends MMapFile {
 	projects.add(p);
     }
 
+    // read back from a ParseCache file, which has to match fname
+    Parser(String fname, File cache, String path, long length, long mTime)
+	throws Exception {
+	super(cache.getPath(), ByteOrder.LITTLE_ENDIAN);
+	ByteBuffer buf = this.getByteBuffer();
+	ParseCache.checkKey(buf, path, length, mTime);
+
+	signature = Parse.string(buf);
+	filename = Parse.string(buf);
+	version = Parse.string(buf);
+	kpv = buf.getInt();
+
+	int n = buf.getInt();
+	projects = new ArrayList<Project>(n);
+	for (int i=0; i<n; i++) {
+	    Project p = Project.fromCache(fname, buf, kpv);
+	    p.mTime = new Date(mTime);
+	    projects.add(p);
+	}
+    }
+
+    void writeCache(DataOutputStream out) throws IOException {
+	ParseCache.putString(out, signature);
+	ParseCache.putString(out, filename);
+	ParseCache.putString(out, version);
+	ParseCache.putInt(out, kpv);
+	ParseCache.putInt(out, projects.size());
+	for (Project p: projects)
+	    p.writeCache(out);
+    }
+
     public String toString() {
 	String out="signature: " + signature + "\n";
 	out += "filename: " + filename + "\n";
@@ -168,21 +202,28 @@ public class Parser extends MMapFile {
     public ArrayList<Map> find(Map map) {
 	ArrayList<Map> matches = new ArrayList<Map>();
 	for (Project p: projects)
-	    matches.addAll(p.find(map));
+	    if (p.hasMaps()) matches.addAll(p.find(map));
 	return matches;
     }
 
     public ArrayList<Map> find(String id) {
 	ArrayList<Map> matches = new ArrayList<Map>();
 	for (Project p: projects)
-	    matches.addAll(p.find(id));
+	    if (p.hasMaps()) matches.addAll(p.find(id));
 	return matches;
     }
 
     public ArrayList<Map> find(HexValue v) {
 	ArrayList<Map> matches = new ArrayList<Map>();
 	for (Project p: projects)
-	    matches.addAll(p.find(v));
+	    if (p.hasMaps()) matches.addAll(p.find(v));
+	return matches;
+    }
+
+    public ArrayList<Map> findByName(String name) {
+	ArrayList<Map> matches = new ArrayList<Map>();
+	for (Project p: projects)
+	    if (p.hasMaps()) matches.addAll(p.findByName(name));
 	return matches;
     }
 
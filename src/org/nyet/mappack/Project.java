@@ -1,14 +1,16 @@
 package org.nyet.mappack;
 
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.zip.*;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.ByteOrder;
 import java.nio.ByteBuffer;
 
 import org.nyet.util.Files;
+import org.nyet.util.WorkerPool;
 import org.nyet.util.XmlString;
 
 public class Project {
@@ -20,7 +22,19 @@ public class Project {
     private HexValue[] header1 = new HexValue[4];
     private HexValue[] h77 = new HexValue[1];	// 77 33 88 11
     public int numMaps;
-    public TreeSet<Map> maps;
+    public TreeSet<Map> maps;	// null until maps() for a cached project
+    // the raw sections, kept so the project can be cached, and so a
+    // cached project can decode just the maps it is asked for
+    private ByteBuffer headerSection;
+    private ByteBuffer records;
+    private int[] start;	// record i is records[start[i], start[i+1])
+    private ByteBuffer tailSection;
+    private Map[] decoded;	// by record number
+    private int[] flut;		// folder id, old->new
+    // built once the maps are parsed, record numbers in TreeSet order
+    private HashMap<String, ArrayList<Integer>> byStem;
+    private HashMap<HexValue, ArrayList<Integer>> byAddress;
+    private HashMap<String, ArrayList<Integer>> byName;
     private HexValue[] header2 = new HexValue[3];
     public int numFolders;
     public TreeSet<Folder> folders = new TreeSet<Folder>();
@@ -40,19 +54,24 @@ public class Project {
 	if (kpv == Map.INPUT_KP_v2) b.get(); // eat an extra 0 byte
     }
 
-    private static ByteBuffer is2bb(ZipInputStream in) throws IOException {
-	final int BUFSIZE=1024;
-	ByteArrayOutputStream out = new ByteArrayOutputStream(BUFSIZE);
-
-	byte[] tmp = new byte[BUFSIZE];
+    /*
+     * Inflate straight into one array.  The entry size is used when the
+     * zip has it, otherwise guess from the compressed size and grow.
+     */
+    private static ByteBuffer is2bb(ZipInputStream in, long size, int zsize)
+	throws IOException {
+	byte[] buf = new byte[size>0 && size<Integer.MAX_VALUE?(int)size+1:
+	    Math.max(1024, zsize*4)];
+	int len = 0;
 
 	while (true) {
-	    int r = in.read(tmp, 0, BUFSIZE);
+	    if (len == buf.length) buf = Arrays.copyOf(buf, buf.length*2);
+	    int r = in.read(buf, len, buf.length-len);
 	    if (r == -1) break;
-	    if (r>0) out.write(tmp,0,r);
+	    len += r;
 	}
 
-	return ByteBuffer.wrap(out.toByteArray());
+	return ByteBuffer.wrap(buf, 0, len).slice();
     }
 
     private void ParseMapsZip(ByteBuffer b) throws ParserException {
@@ -64,7 +83,7 @@ public class Project {
 	ZipInputStream zis = new ZipInputStream(bbis);
 	try {
 	    ZipEntry ze = zis.getNextEntry();
-	    ByteBuffer bb = is2bb(zis);
+	    ByteBuffer bb = is2bb(zis, ze.getSize(), zsize);
 	    bb.order(ByteOrder.LITTLE_ENDIAN);
 	    bb.get();	// eat a byte
 	    ParseMaps(bb);
@@ -76,22 +95,168 @@ public class Project {
 	b.getInt(); // eat an extra 0 int
     }
 
+    private ParserException mapException(int i, ParserException e) {
+	return new ParserException(e.b,
+	    String.format("error parsing map %d/%d:\n  %s",
+		(i+1), this.numMaps, e.getMessage()),
+	    e.getCause(), e.o);
+    }
+
+    /* decode map i from its own view of b */
+    private Map decode(ByteBuffer b, int[] start, int i)
+	throws ParserException {
+	ByteBuffer r = b.duplicate();
+	r.order(b.order());
+	r.limit(start[i+1]);
+	r.position(start[i]);
+	try {
+	    Map m = new Map(i, r, kpv);
+	    if(r.position()!=start[i+1])
+		throw new ParserException(r, "record length mismatch", m);
+	    return m;
+	} catch (ParserException e) {
+	    throw mapException(i, e);
+	}
+    }
+
+    /* decode maps [first, last) */
+    private Callable<Map[]> decoder(final ByteBuffer b, final int[] start,
+	final int first, final int last) {
+	return new Callable<Map[]>() {
+	    public Map[] call() throws ParserException {
+		Map[] out = new Map[last-first];
+		for(int i=first;i<last;i++) out[i-first] = decode(b, start, i);
+		return out;
+	    }
+	};
+    }
+
     private void ParseMaps(ByteBuffer b) throws ParserException {
 	// Maps
 	this.numMaps = b.getInt();
+	// before sizing anything by it, a corrupt count would be huge
+	if(numMaps<0 || numMaps>b.remaining()/Map.MIN_RECORD)
+	    throw new ParserException(b, "invalid map count", numMaps);
 
-	this.maps = new TreeSet<Map>();
+	// find the record boundaries first, so the records can be decoded
+	// in parallel; positions stay absolute in each record's view
+	final int[] start = new int[numMaps+1];
 	for(int i=0;i<numMaps;i++) {
+	    start[i] = b.position();
 	    try {
-		Map m = new Map(i, b, this.kpv);
-		this.maps.add(m);
+		Map.skip(b, this.kpv);
 	    } catch (ParserException e) {
-		throw new ParserException(e.b,
-		    String.format("error parsing map %d/%d:\n  %s",
-			(i+1), this.numMaps, e.getMessage()),
-		    e.getCause(), e.o);
+		throw mapException(i, e);
+	    }
+	}
+	start[numMaps] = b.position();
+
+	this.records = b.duplicate();
+	this.records.order(b.order());
+	this.start = start;
+	this.decoded = decodeAll();
+
+	// add in record order, so duplicates resolve as before
+	this.maps = new TreeSet<Map>(Arrays.asList(this.decoded));
+	index();
+    }
+
+    private Map[] decodeAll() throws ParserException {
+	// a few chunks per thread to even out the load; one if that's all
+	// there is, so it just runs here
+	final int n = WorkerPool.threads();
+	final int chunks = Math.min(numMaps, n>1?n*4:1);
+	final ArrayList<Callable<Map[]>> tasks = new ArrayList<Callable<Map[]>>();
+	for(int c=0;c<chunks;c++)
+	    tasks.add(decoder(this.records, this.start,
+		(int)((long)numMaps*c/chunks), (int)((long)numMaps*(c+1)/chunks)));
+
+	final Map[] out = new Map[numMaps];
+	try {
+	    int i = 0;
+	    for(Map[] a : WorkerPool.run(tasks)) {
+		System.arraycopy(a, 0, out, i, a.length);
+		i += a.length;
+	    }
+	} catch (ParserException e) {
+	    throw e;
+	} catch (RuntimeException e) {
+	    throw e;
+	} catch (Exception e) {
+	    throw new ParserException(this.records, e.toString(), e, this);
+	}
+	return out;
+    }
+
+    private static <K> void put(HashMap<K, ArrayList<Integer>> index, K k,
+	int r) {
+	ArrayList<Integer> l = index.get(k);
+	if(l==null) {
+	    l = new ArrayList<Integer>(1);
+	    index.put(k, l);
+	}
+	l.add(r);
+    }
+
+    private void newIndex() {
+	this.byStem = new HashMap<String, ArrayList<Integer>>();
+	this.byAddress = new HashMap<HexValue, ArrayList<Integer>>();
+	this.byName = new HashMap<String, ArrayList<Integer>>();
+    }
+
+    private void index(int r, int address, String stem, String name) {
+	// maps with no id never match anything
+	if(stem.length()>0) put(this.byStem, stem, r);
+	put(this.byAddress, new HexValue(address), r);
+	if(name!=null) put(this.byName, name, r);
+    }
+
+    private void index() {
+	newIndex();
+	for(Map m: this.maps)
+	    index(m.index(), m.extent[0].v, m.stem(), m.name);
+    }
+
+    private <K> ArrayList<Map> lookup(HashMap<K, ArrayList<Integer>> index,
+	K k) {
+	final ArrayList<Map> out = new ArrayList<Map>();
+	final ArrayList<Integer> l = index.get(k);
+	if(l!=null) for(int r: l) out.add(map(r));
+	return out;
+    }
+
+    // a cached project decodes each map the first time it is asked for
+    private synchronized Map map(int r) {
+	if(this.decoded[r]==null) {
+	    try {
+		final Map m = decode(this.records, this.start, r);
+		m.folderId = this.flut[m.folderId];
+		this.decoded[r] = m;
+	    } catch (ParserException e) {
+		throw new RuntimeException(e.getMessage(), e);
+	    }
+	}
+	return this.decoded[r];
+    }
+
+    public boolean hasMaps() { return this.decoded!=null; }
+
+    public synchronized TreeSet<Map> maps() {
+	if(this.maps==null && this.decoded!=null) {
+	    final Map[] all;
+	    try {
+		all = decodeAll();
+	    } catch (ParserException e) {
+		throw new RuntimeException(e.getMessage(), e);
+	    }
+	    for(int r=0;r<numMaps;r++) {
+		if(this.decoded[r]!=null) continue;
+		all[r].folderId = this.flut[all[r].folderId];
+		this.decoded[r] = all[r];
 	    }
+	    this.maps = new TreeSet<Map>(Arrays.asList(this.decoded));
 	}
+	return this.maps;
     }
 
     private void ParseFolders(ByteBuffer b) throws ParserException {
@@ -118,6 +283,7 @@ public class Project {
 	    flut[f.id]=i; // old->new
 	    f.id=i++; // new id
 	}
+	this.flut = flut;
 
 	if(this.maps!=null) {
 	    // fix up map folder ids
@@ -131,20 +297,90 @@ public class Project {
 	this.kpv = kpv;
 	this.stem = Files.stem(filename);
 
+	int from = b.position();
 	ParseHeader(b);
+	this.headerSection = view(b, from, b.position());
 
 	if (kpv == Map.INPUT_KP_v1) ParseMaps(b);
 	else ParseMapsZip(b);
 
+	from = b.position();
 	Parse.buffer(b, this.header2);	// unk
 
 	ParseFolders(b);
+	this.tailSection = view(b, from, b.position());
 
 	// Trailing junk
 	//this.remaining = new byte[b.remaining()];
 	//Parse.buffer(b, this.remaining);	// unk
     }
 
+    private static ByteBuffer view(ByteBuffer b, int from, int to) {
+	ByteBuffer out = b.duplicate();
+	out.limit(to);
+	out.position(from);
+	return out.slice().order(b.order());
+    }
+
+    private static ByteBuffer section(ByteBuffer b) {
+	final int len = b.getInt();
+	final ByteBuffer out = view(b, b.position(), b.position()+len);
+	b.position(b.position()+len);
+	return out;
+    }
+
+    private Project() {}
+
+    /*
+     * The cached form is the raw header, record and folder sections,
+     * with the record boundaries and the lookup index already worked
+     * out, so nothing has to be inflated or scanned, and maps are only
+     * decoded when they are looked up.  See ParseCache.
+     */
+    static Project fromCache(String filename, ByteBuffer b, int kpv)
+	throws ParserException {
+	final Project p = new Project();
+	p.kpv = kpv;
+	p.stem = Files.stem(filename);
+
+	p.headerSection = section(b);
+	p.ParseHeader(p.headerSection.duplicate().order(b.order()));
+
+	p.numMaps = b.getInt();
+	p.start = new int[p.numMaps+1];
+	for(int i=0;i<=p.numMaps;i++) p.start[i] = b.getInt();
+	p.newIndex();
+	for(int i=0;i<p.numMaps;i++) {
+	    final int r = b.getInt();
+	    final int address = b.getInt();
+	    p.index(r, address, Parse.string(b), Parse.string(b));
+	}
+	p.records = section(b);
+	p.decoded = new Map[p.numMaps];
+
+	p.tailSection = section(b);
+	final ByteBuffer t = p.tailSection.duplicate().order(b.order());
+	Parse.buffer(t, p.header2);
+	p.ParseFolders(t);
+	return p;
+    }
+
+    void writeCache(DataOutputStream out) throws IOException {
+	ParseCache.putSection(out, this.headerSection);
+	ParseCache.putInt(out, this.numMaps);
+	for(int i=0;i<=this.numMaps;i++)
+	    ParseCache.putInt(out, this.start[i]-this.start[0]);
+	for(Map m: maps()) {
+	    ParseCache.putInt(out, m.index());
+	    ParseCache.putInt(out, m.extent[0].v);
+	    ParseCache.putString(out, m.stem());
+	    ParseCache.putString(out, m.name);
+	}
+	ParseCache.putSection(out,
+	    view(this.records, this.start[0], this.start[this.numMaps]));
+	ParseCache.putSection(out, this.tailSection);
+    }
+
     public String toString () {
 	String out ="project: '" + name + "': (" + version + ") - " + numMaps + " maps\n";
 	out += "  h: " + Arrays.toString(header) + "\n";
@@ -154,32 +390,45 @@ public class Project {
 	return out;
     }
     public String toString(int format, ByteBuffer imagebuf) {
-	String out;
+	StringBuilder out = new StringBuilder();
+	try {
+	    write(out, format, imagebuf);
+	} catch (IOException e) {
+	    // can't happen with a StringBuilder
+	}
+	return out.toString();
+    }
+
+    public void write(Appendable out, int format, ByteBuffer imagebuf)
+	throws IOException {
 	switch(format) {
 	    case Map.FORMAT_OLD_XDF:
-		out = "%%HEADER%%\n";
-		out += String.format(Map.XDF_LBL+"\"%s\"\n",1000, "FileVers",
+		Formatter fmt = new Formatter(out);
+		out.append("%%HEADER%%\n");
+		fmt.format(Map.XDF_LBL+"\"%s\"\n",1000, "FileVers",
 			this.version + " - " + this.mTime);
-		out += String.format(Map.XDF_LBL+"\"%s\"\n",1005, "DefTitle",
+		fmt.format(Map.XDF_LBL+"\"%s\"\n",1005, "DefTitle",
 			this.stem);
-		out += String.format(Map.XDF_LBL+"\"%s\"\n",1006, "Desc",
+		fmt.format(Map.XDF_LBL+"\"%s\"\n",1006, "Desc",
 			this.name);
-		out += String.format(Map.XDF_LBL+"0x%X\n",1007, "DescSize",
+		fmt.format(Map.XDF_LBL+"0x%X\n",1007, "DescSize",
 			this.name.length()+1);
-		out += String.format(Map.XDF_LBL+"\"%s\"\n",1010, "Author", "mesim translator");
+		fmt.format(Map.XDF_LBL+"\"%s\"\n",1010, "Author", "mesim translator");
 		if(imagebuf!=null && imagebuf.limit()>0)
-		    out += String.format(Map.XDF_LBL+"0x%X\n",1030, "BinSize", imagebuf.limit());
-		out += String.format(Map.XDF_LBL+"%d\n",1035, "BaseOffset", 0);
-		out += String.format(Map.XDF_LBL+"\"\"\n",1200, "ADSAssoc", 0);
-		out += String.format(Map.XDF_LBL+"0x0\n",1225, "ADSCheck", 0);
-		out += String.format(Map.XDF_LBL+"0x%X\n",1300, "GenFlags", 0);
-		out += String.format(Map.XDF_LBL+"0x%X\n",1325, "ModeFlags", 0);
+		    fmt.format(Map.XDF_LBL+"0x%X\n",1030, "BinSize", imagebuf.limit());
+		fmt.format(Map.XDF_LBL+"%d\n",1035, "BaseOffset", 0);
+		fmt.format(Map.XDF_LBL+"\"\"\n",1200, "ADSAssoc", 0);
+		fmt.format(Map.XDF_LBL+"0x0\n",1225, "ADSCheck", 0);
+		fmt.format(Map.XDF_LBL+"0x%X\n",1300, "GenFlags", 0);
+		fmt.format(Map.XDF_LBL+"0x%X\n",1325, "ModeFlags", 0);
 		for(Folder f: this.folders) {
-		    out += String.format(Map.XDF_LBL+"\"%s\"\n", 2000+f.id, "Category"+f.id, f.name);
+		    fmt.format(Map.XDF_LBL+"\"%s\"\n", 2000+f.id, "Category"+f.id, f.name);
 		}
-		return out + "%%END%%\n\n";
+		out.append("%%END%%\n\n");
+		if(fmt.ioException()!=null) throw fmt.ioException();
+		break;
 	    case Map.FORMAT_XDF:
-		XmlString xs = new XmlString();
+		XmlString xs = new XmlString(out);
 		xs.indent();
 		xs.append("XDFHEADER");
 		xs.indent();
@@ -214,35 +463,33 @@ public class Project {
 		    xs.append("CATEGORY", m);
 		}
 		xs.unindent();
-		return xs.append("/XDFHEADER").toString();
+		xs.append("/XDFHEADER");
+		break;
 	    case Map.FORMAT_DUMP:
-		return toString();
+		out.append(toString());
+		break;
 	    default:
-		return "";
+		break;
 	}
     }
 
     public ArrayList<Map> find(Map map) {
-	if(this.maps == null) return null;
-	ArrayList<Map> matches = new ArrayList<Map>();
-	for(Map m: this.maps)
-	    if(m.equals(map)) matches.add(m);
-	return matches;
+	if(this.decoded == null) return null;
+	return lookup(this.byStem, map.stem());
     }
 
     public ArrayList<Map> find(String id) {
-	if(this.maps == null) return null;
-	ArrayList<Map> matches = new ArrayList<Map>();
-	for(Map m: this.maps)
-	    if(m.equals(id)) matches.add(m);
-	return matches;
+	if(this.decoded == null) return null;
+	return lookup(this.byStem, id);
     }
 
     public ArrayList<Map> find(HexValue v) {
-	if(this.maps == null) return null;
-	ArrayList<Map> matches = new ArrayList<Map>();
-	for(Map m: this.maps)
-	    if(m.extent[0].equals(v));
-	return matches;
+	if(this.decoded == null) return null;
+	return lookup(this.byAddress, v);
+    }
+
+    public ArrayList<Map> findByName(String name) {
+	if(this.decoded == null) return null;
+	return lookup(this.byName, name);
     }
 }
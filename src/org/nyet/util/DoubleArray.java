@@ -17,6 +17,42 @@ public class DoubleArray
 	public double f(double x, double y);
     }
 
+    /*
+     * Read only window on a DoubleArray's storage, no copy.  Views are
+     * meant for data that is done growing; one taken before a later
+     * append keeps seeing the old storage.
+     */
+    public static class View {
+	private final double[] array;
+	private final int offset;
+	private final int length;
+
+	private View(double[] array, int offset, int length) {
+	    this.array = array;
+	    this.offset = offset;
+	    this.length = length;
+	}
+
+	public int size() { return this.length; }
+
+	public double get(int i) {
+	    if(i<0 || i>=this.length)
+		throw new ArrayIndexOutOfBoundsException(i);
+	    return this.array[this.offset+i];
+	}
+
+	public double[] toArray() {
+	    double[] out = new double[ this.length ];
+	    System.arraycopy( this.array, this.offset, out, 0, this.length );
+	    return out;
+	}
+
+	public java.nio.DoubleBuffer asBuffer() {
+	    return java.nio.DoubleBuffer.wrap(this.array, this.offset,
+		this.length).slice().asReadOnlyBuffer();
+	}
+    }
+
     public DoubleArray()
     {
         this( 1024 );
@@ -47,11 +83,26 @@ public class DoubleArray
         array = new double[ initialSize ];
     }
 
+    // takes ownership of a, no copy
+    public static DoubleArray wrap( double[] a )
+    {
+	DoubleArray out = new DoubleArray( 0, a.length );
+	out.array = a;
+	out.sp = a.length;
+	return out;
+    }
+
+    double[] array() { return this.array; }
+
+    public DoubleExpr expr() { return DoubleExpr.of( this ); }
+
     public void append( double d )
     {
         if( sp >= array.length ) // time to grow!
         {
-            double[] tmpArray = new double[ array.length + growthSize ];
+	    // grow by half, so appending n values copies O(n) in total
+	    int grow = Math.max( growthSize, array.length >> 1 );
+            double[] tmpArray = new double[ array.length + Math.max( grow, 1 ) ];
             System.arraycopy( array, 0, tmpArray, 0, array.length );
             array = tmpArray;
         }
@@ -61,6 +112,16 @@ public class DoubleArray
 
     public int size() { return sp; }
 
+    // drops the first n values, shifting the rest down in place so the
+    // storage is reused.  Views taken before now point at other values,
+    // take them again
+    public void trim( int n )
+    {
+	n = Math.min( Math.max( n, 0 ), sp );
+	System.arraycopy( array, n, array, 0, sp-n );
+	sp -= n;
+    }
+
     public double[] toArray()
     {
         double[] trimmedArray = new double[ sp ];
@@ -76,6 +137,19 @@ public class DoubleArray
         return trimmedArray;
     }
 
+    public View view(int start, int end)	// end is inclusive
+    {
+	if( start<0 || end<start-1 || end>=this.sp )
+	    throw new ArrayIndexOutOfBoundsException(
+		"[" + start + ":" + end + "]");
+	return new View( this.array, start, end-start+1 );
+    }
+
+    public View view()
+    {
+	return new View( this.array, 0, this.sp );
+    }
+
     public double[] toArray(int start)
     {
 	return this.toArray(start, this.sp-1);
@@ -93,10 +167,10 @@ public class DoubleArray
 	return out;
     }
     public DoubleArray func(TransferFunction f) {
-	return new DoubleArray(this._func(f, Double.NaN));
+	return wrap(this._func(f, Double.NaN));
     }
     public DoubleArray func(TransferFunction f, double x) {
-	return new DoubleArray(this._func(f, x));
+	return wrap(this._func(f, x));
     }
 
     public double[] _func(TransferFunction f, double[] d) {
@@ -107,10 +181,10 @@ public class DoubleArray
 	return out;
     }
     public DoubleArray func(TransferFunction f, double[] x) {
-	return new DoubleArray(this._func(f, x));
+	return wrap(this._func(f, x));
     }
     public DoubleArray func(TransferFunction f, DoubleArray x) {
-	return new DoubleArray(this._func(f, x.toArray()));
+	return wrap(this._func(f, x.toArray()));
     }
 
     private static TransferFunction fAdd = new TransferFunction() {
@@ -146,7 +220,7 @@ public class DoubleArray
 	    return Math.pow(x,y);
     }};
     public DoubleArray pow(double d) {
-	return new DoubleArray(this._func(fPow, d));
+	return wrap(this._func(fPow, d));
     }
 
     public double[] _abs() {
@@ -157,7 +231,7 @@ public class DoubleArray
 	return out;
     }
     public DoubleArray abs() {
-	return new DoubleArray(this._abs());
+	return wrap(this._abs());
     }
 
     public double[] _min(double d) {
@@ -168,7 +242,7 @@ public class DoubleArray
 	return out;
     }
     public DoubleArray min(double d) {
-	return new DoubleArray(this._min(d));
+	return wrap(this._min(d));
     }
 
     public double[] _max(double d) {
@@ -179,7 +253,7 @@ public class DoubleArray
 	return out;
     }
     public DoubleArray max(double d) {
-	return new DoubleArray(this._max(d));
+	return wrap(this._max(d));
     }
 
     public double[] _max(double[] d) {
@@ -190,7 +264,7 @@ public class DoubleArray
 	return out;
     }
     public DoubleArray max(DoubleArray d) {
-	return new DoubleArray(this._max(d.toArray()));
+	return wrap(this._max(d.toArray()));
     }
 
     public boolean isZero() {
@@ -221,10 +295,10 @@ public class DoubleArray
 	}
     }
     public DoubleArray derivative(DoubleArray d) {
-	return new DoubleArray(this._derivative(d.toArray(), 0));
+	return wrap(this._derivative(d.toArray(), 0));
     }
     public DoubleArray derivative(DoubleArray d, int window) {
-	return new DoubleArray(this._derivative(d.toArray(), window));
+	return wrap(this._derivative(d.toArray(), window));
     }
 
     public double[] _integral(double[] d, double min, double max) {
@@ -242,13 +316,13 @@ public class DoubleArray
 	return out;
     }
     public DoubleArray integral(DoubleArray d) {
-	return new DoubleArray(this._integral(d.toArray(), Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY));
+	return wrap(this._integral(d.toArray(), Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY));
     }
     public DoubleArray integral(DoubleArray d, double min) {
-	return new DoubleArray(this._integral(d.toArray(), min, Double.POSITIVE_INFINITY));
+	return wrap(this._integral(d.toArray(), min, Double.POSITIVE_INFINITY));
     }
     public DoubleArray integral(DoubleArray d, double min, double max) {
-	return new DoubleArray(this._integral(d.toArray(), min, max));
+	return wrap(this._integral(d.toArray(), min, max));
     }
 
     public DoubleArray smooth() {
@@ -259,6 +333,8 @@ public class DoubleArray
     }
 
     public DoubleArray movingAverage(int window) {
+	// too short to average, as a stream or a log cut short starts out
+	if(this.sp<(window|1)) return new DoubleArray(this.toArray());
 	MovingAverageSmoothing s = new MovingAverageSmoothing(window);
 	return new DoubleArray(s.smoothAll(this.toArray()));
     }
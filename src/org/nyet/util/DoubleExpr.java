@@ -0,0 +1,178 @@
+package org.nyet.util;
+
+/*
+ * Lazy element-wise arithmetic on DoubleArrays.  Chaining ops only
+ * builds a tree; eval() runs the whole tree one cache sized block at a
+ * time and writes a single output array, instead of allocating a full
+ * length temporary for every op the way DoubleArray's add/mult/etc. do.
+ * The operations are applied in the same order as the equivalent
+ * DoubleArray chain, so the results are identical.
+ *
+ * Expressions hold scratch space while evaluating, don't share one
+ * between threads.
+ */
+public abstract class DoubleExpr
+{
+    private static final int BLOCK = 512;
+    private static final int ADD=0, SUB=1, MULT=2, DIV=3, POW=4, MIN=5, MAX=6;
+
+    public abstract int size();
+
+    // elements [from, from+n) into out[off..off+n)
+    protected abstract void fill(int from, int n, double[] out, int off);
+
+    // the eager ops index y by x, a short y is out of bounds there too
+    private static void check(DoubleExpr x, DoubleExpr y) {
+	if(y.size()<x.size())
+	    throw new ArrayIndexOutOfBoundsException(
+		y.size() + "<" + x.size());
+    }
+
+    public static DoubleExpr of(final DoubleArray a) {
+	return new DoubleExpr() {
+	    private final double[] array = a.array();
+	    private final int size = a.size();
+	    public int size() { return this.size; }
+	    protected void fill(int from, int n, double[] out, int off) {
+		System.arraycopy(this.array, from, out, off, n);
+	    }
+	};
+    }
+
+    public DoubleArray eval() {
+	final int size = size();
+	final double[] out = new double[size];
+	for(int from=0;from<size;from+=BLOCK)
+	    fill(from, Math.min(BLOCK, size-from), out, from);
+	return DoubleArray.wrap(out);
+    }
+
+    private static final class Op extends DoubleExpr {
+	private final int op;
+	private final DoubleExpr x, y;
+	private double[] tmp;
+	Op(int op, DoubleExpr x, DoubleExpr y) {
+	    check(x, y);
+	    this.op = op;
+	    this.x = x;
+	    this.y = y;
+	}
+	public int size() { return this.x.size(); }
+	protected void fill(int from, int n, double[] out, int off) {
+	    if(this.tmp==null) this.tmp = new double[BLOCK];
+	    final double[] b = this.tmp;
+	    this.x.fill(from, n, out, off);
+	    this.y.fill(from, n, b, 0);
+	    switch(this.op) {
+		case ADD: for(int i=0;i<n;i++) out[off+i]+=b[i]; break;
+		case SUB: for(int i=0;i<n;i++) out[off+i]-=b[i]; break;
+		case MULT: for(int i=0;i<n;i++) out[off+i]*=b[i]; break;
+		case DIV: for(int i=0;i<n;i++) out[off+i]/=b[i]; break;
+		case MAX:
+		    for(int i=0;i<n;i++) out[off+i]=Math.max(out[off+i],b[i]);
+		    break;
+		default:
+		    for(int i=0;i<n;i++) out[off+i]=Math.min(out[off+i],b[i]);
+	    }
+	}
+    }
+
+    private static final class ScalarOp extends DoubleExpr {
+	private final int op;
+	private final DoubleExpr x;
+	private final double d;
+	ScalarOp(int op, DoubleExpr x, double d) {
+	    this.op = op;
+	    this.x = x;
+	    this.d = d;
+	}
+	public int size() { return this.x.size(); }
+	protected void fill(int from, int n, double[] out, int off) {
+	    final double d = this.d;
+	    this.x.fill(from, n, out, off);
+	    switch(this.op) {
+		case ADD: for(int i=0;i<n;i++) out[off+i]+=d; break;
+		case SUB: for(int i=0;i<n;i++) out[off+i]-=d; break;
+		case MULT: for(int i=0;i<n;i++) out[off+i]*=d; break;
+		case DIV: for(int i=0;i<n;i++) out[off+i]/=d; break;
+		case POW:
+		    for(int i=0;i<n;i++) out[off+i]=Math.pow(out[off+i],d);
+		    break;
+		case MAX:
+		    for(int i=0;i<n;i++) out[off+i]=Math.max(out[off+i],d);
+		    break;
+		default:
+		    for(int i=0;i<n;i++) out[off+i]=Math.min(out[off+i],d);
+	    }
+	}
+    }
+
+    private static final class Func extends DoubleExpr {
+	private final DoubleArray.TransferFunction f;
+	private final DoubleExpr x, y;
+	private double[] tmp;
+	Func(DoubleArray.TransferFunction f, DoubleExpr x, DoubleExpr y) {
+	    if(y!=null) check(x, y);
+	    this.f = f;
+	    this.x = x;
+	    this.y = y;
+	}
+	public int size() { return this.x.size(); }
+	protected void fill(int from, int n, double[] out, int off) {
+	    this.x.fill(from, n, out, off);
+	    if(this.y==null) {
+		for(int i=off;i<off+n;i++)
+		    out[i]=this.f.f(out[i], Double.NaN);
+		return;
+	    }
+	    if(this.tmp==null) this.tmp = new double[BLOCK];
+	    final double[] b = this.tmp;
+	    this.y.fill(from, n, b, 0);
+	    for(int i=0;i<n;i++) out[off+i]=this.f.f(out[off+i], b[i]);
+	}
+    }
+
+    public DoubleExpr add(double d) { return new ScalarOp(ADD, this, d); }
+    public DoubleExpr add(DoubleExpr d) { return new Op(ADD, this, d); }
+    public DoubleExpr add(DoubleArray d) { return add(of(d)); }
+
+    public DoubleExpr sub(double d) { return new ScalarOp(SUB, this, d); }
+    public DoubleExpr sub(DoubleExpr d) { return new Op(SUB, this, d); }
+    public DoubleExpr sub(DoubleArray d) { return sub(of(d)); }
+
+    public DoubleExpr mult(double d) { return new ScalarOp(MULT, this, d); }
+    public DoubleExpr mult(DoubleExpr d) { return new Op(MULT, this, d); }
+    public DoubleExpr mult(DoubleArray d) { return mult(of(d)); }
+
+    public DoubleExpr div(double d) { return new ScalarOp(DIV, this, d); }
+    public DoubleExpr div(DoubleExpr d) { return new Op(DIV, this, d); }
+    public DoubleExpr div(DoubleArray d) { return div(of(d)); }
+
+    public DoubleExpr pow(double d) { return new ScalarOp(POW, this, d); }
+
+    public DoubleExpr min(double d) { return new ScalarOp(MIN, this, d); }
+    public DoubleExpr max(double d) { return new ScalarOp(MAX, this, d); }
+    public DoubleExpr max(DoubleExpr d) { return new Op(MAX, this, d); }
+    public DoubleExpr max(DoubleArray d) { return max(of(d)); }
+
+    public DoubleExpr abs() {
+	final DoubleExpr x = this;
+	return new DoubleExpr() {
+	    public int size() { return x.size(); }
+	    protected void fill(int from, int n, double[] out, int off) {
+		x.fill(from, n, out, off);
+		for(int i=0;i<n;i++) out[off+i]=Math.abs(out[off+i]);
+	    }
+	};
+    }
+
+    public DoubleExpr func(DoubleArray.TransferFunction f) {
+	return new Func(f, this, null);
+    }
+    public DoubleExpr func(DoubleArray.TransferFunction f, DoubleExpr y) {
+	return new Func(f, this, y);
+    }
+    public DoubleExpr func(DoubleArray.TransferFunction f, DoubleArray y) {
+	return func(f, of(y));
+    }
+}
@@ -1,6 +1,14 @@
 package org.nyet.util;
 
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
 public class Files {
+    // compressed bytes read at a time, a log inflates a few times over
+    public static final int GZIP_BUFFER = 1<<16;
+
     public static String dirname(String s) {
 	String [] a = s.split("\\"+java.io.File.separator);
 	return Strings.join(java.io.File.separator, a, a.length-1);
@@ -25,6 +33,32 @@ public class Files {
 	return a[a.length-1];
     }
 
+    /* by its magic number, not its name; false if it can't be read */
+    public static boolean isGzip(String filename) {
+	try {
+	    final InputStream in = new FileInputStream(filename);
+	    try {
+		return in.read()==0x1f && in.read()==0x8b;
+	    } finally {
+		in.close();
+	    }
+	} catch (IOException e) {
+	    return false;
+	}
+    }
+
+    /* the file's contents, inflated on the fly if it is gzipped */
+    public static InputStream open(String filename) throws IOException {
+	final InputStream in = new FileInputStream(filename);
+	if(!isGzip(filename)) return in;
+	try {
+	    return new GZIPInputStream(in, GZIP_BUFFER);
+	} catch (IOException e) {
+	    in.close();
+	    throw e;
+	}
+    }
+
     public static void main(final String[] args) {
 	String [] a = args;
 	if(args.length == 0) {
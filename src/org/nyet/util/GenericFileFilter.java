@@ -3,19 +3,23 @@ import java.io.File;
 import javax.swing.filechooser.FileFilter;
 
 public class GenericFileFilter extends FileFilter implements java.io.FileFilter {
-    private String ext;
+    private String[] exts;
     private String description;
     private boolean allowDir;
 
     public GenericFileFilter (String ext, String desc) {
+	this(new String[] {ext}, desc);
+    }
+    /* exts may have dots in them, like "csv.gz" */
+    public GenericFileFilter (String[] exts, String desc) {
 	super();
-	this.ext=ext;
+	this.exts=exts;
 	this.description=desc;
 	this.allowDir=true;
     }
     public GenericFileFilter (String ext) {
 	super();
-	this.ext=ext;
+	this.exts=new String[] {ext};
 	this.description="";
 	this.allowDir=false;
     }
@@ -34,9 +38,12 @@ public class GenericFileFilter extends FileFilter implements java.io.FileFilter
     public boolean accept(File f) {
 	if(f.isDirectory())
 	    return this.allowDir;
-	String extension = getExtension(f);
-	if(extension != null)
-	    if(extension.equals(this.ext)) return true;
+	String s = f.getName().toLowerCase();
+	for(String ext: this.exts) {
+	    // like getExtension(), there has to be a name before it
+	    if(s.length() > ext.length()+1 && s.endsWith("." + ext))
+		return true;
+	}
 
 	return false;
     }
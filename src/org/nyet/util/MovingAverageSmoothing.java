@@ -1,5 +1,7 @@
 package org.nyet.util;
 
+import java.util.Random;
+
 import vec_math.LinearSmoothing;
 
 public class MovingAverageSmoothing extends LinearSmoothing
@@ -16,4 +18,160 @@ public class MovingAverageSmoothing extends LinearSmoothing
     }
 
     protected void setType() { this.type = FIR; }
+
+    /*
+     * Running sum instead of a w-wide dot product per point, so this is
+     * O(n) whatever the window.  The sum is compensated (Neumaier), so
+     * the round off of adding and dropping values doesn't build up along
+     * the array.  Non finite values are kept out of the running sum;
+     * points whose window holds one are summed directly, so a NaN only
+     * spoils the points it would have before.
+     */
+    public double[] smoothAll(double[] input, int start, int end)
+    {
+	final int w = this.cn.length;
+	if (start+nk < 0 || end+nk+w > input.length)
+	    throw new IllegalArgumentException("Cannot filter cn set: " +
+		(start+nk) + ":"+ (end+nk) +":"+ w + ":" + input.length);
+	if (start>end)
+	    throw new IllegalArgumentException("Cannot filter cn set: " +
+		(start) + ">"+ (end));
+
+	final double[] ret = new double[end-start+1];
+	double sum = 0, c = 0;
+	int bad = 0;	// non finite values in the window
+
+	// prime with all but the newest value of the first window
+	for (int j=start+nk; j<start+nk+w-1; j++) {
+	    final double x = input[j];
+	    if (Double.isNaN(x) || Double.isInfinite(x)) { bad++; continue; }
+	    final double t = sum + x;
+	    if (Math.abs(sum) >= Math.abs(x)) c += (sum - t) + x;
+	    else c += (x - t) + sum;
+	    sum = t;
+	}
+
+	for (int i=0; i<ret.length; i++) {
+	    final int first = start+i+nk;
+	    final double in = input[first+w-1];
+	    if (Double.isNaN(in) || Double.isInfinite(in)) bad++;
+	    else {
+		final double t = sum + in;
+		if (Math.abs(sum) >= Math.abs(in)) c += (sum - t) + in;
+		else c += (in - t) + sum;
+		sum = t;
+	    }
+
+	    if (bad>0) {
+		double s = 0;
+		for (int j=first; j<first+w; j++) s += input[j];
+		ret[i] = s/w;
+	    } else {
+		ret[i] = (sum + c)/w;
+	    }
+
+	    final double out = input[first];
+	    if (Double.isNaN(out) || Double.isInfinite(out)) bad--;
+	    else {
+		final double t = sum - out;
+		if (Math.abs(sum) >= Math.abs(out)) c += (sum - t) - out;
+		else c += (-out - t) + sum;
+		sum = t;
+	    }
+	}
+	return ret;
+    }
+
+    /* the w-wide dot product per point this replaced, for main() */
+    private static LinearSmoothing reference(final MovingAverageSmoothing m) {
+	return new LinearSmoothing() {
+	    { this.cn = m.cn; this.nk = m.nk; setType(); }
+	    protected void setType() { this.type = FIR; }
+	};
+    }
+
+    /* all of input if start>end+1, else just start..end; the message if it throws */
+    private static String smooth(LinearSmoothing l, double[] input,
+	    int start, int end, double[][] out) {
+	try {
+	    out[0] = start>end+1?l.smoothAll(input):
+		l.smoothAll(input, start, end);
+	    return null;
+	} catch (IllegalArgumentException e) {
+	    return e.getMessage();
+	}
+    }
+
+    /*
+     * Checks smoothAll() against the dot product, head and tail included,
+     * over plain data, spikes, and a NaN and an Inf.  Sizes too small for
+     * the window, and windows that run off either end, have to throw the
+     * same exception.
+     */
+    public static void main(String[] args) {
+	final int[] sizes = {1, 2, 5, 10, 63, 1000, 100000};
+	final Random r = new Random(1);
+	int points = 0, throwsSame = 0, bad = 0;
+	double worst = 0;
+	for(int n: sizes) {
+	    for(int kind=0;kind<3;kind++) {
+		final double[] in = new double[n];
+		for(int i=0;i<n;i++) {
+		    in[i] = 3000 + 4000*r.nextDouble();
+		    if(r.nextInt(50)==0) in[i] *= 1e6;	// spike
+		}
+		if(kind==1) in[n/2] = Double.NaN;
+		if(kind==2) in[n/3] = Double.POSITIVE_INFINITY;
+		double scale = 0;
+		for(double x: in)
+		    if(!Double.isNaN(x) && !Double.isInfinite(x))
+			scale = Math.max(scale, Math.abs(x));
+
+		for(int w=0;w<62;w++) {
+		    final MovingAverageSmoothing m = new MovingAverageSmoothing(w);
+		    final LinearSmoothing ref = reference(m);
+		    // all of it, then one off the head, then one off the tail
+		    final int[][] ranges = {
+			{1, -1},
+			{-m.nk-1, n+m.nk-1},
+			{-m.nk, n+m.nk},
+		    };
+		    for(int[] se: ranges) {
+			final double[][] a = new double[1][], b = new double[1][];
+			final String ea = smooth(m, in, se[0], se[1], a);
+			final String eb = smooth(ref, in, se[0], se[1], b);
+			if(ea!=null || eb!=null) {
+			    if(ea!=null && ea.equals(eb)) throwsSame++;
+			    else {
+				bad++;
+				System.out.println(String.format(
+				    "n=%d w=%d %d:%d: threw \"%s\", expected \"%s\"",
+				    n, w, se[0], se[1], ea, eb));
+			    }
+			    continue;
+			}
+			for(int i=0;i<b[0].length;i++) {
+			    final double x = a[0][i], y = b[0][i];
+			    points++;
+			    if(Double.isNaN(y) || Double.isInfinite(y)) {
+				if(Double.compare(x, y)==0) continue;
+			    } else {
+				final double d = Math.abs(x-y)/scale;
+				worst = Math.max(worst, d);
+				if(d<=1e-12) continue;
+			    }
+			    bad++;
+			    System.out.println(String.format(
+				"n=%d w=%d kind=%d [%d]: %s, expected %s",
+				n, w, kind, i, x, y));
+			}
+		    }
+		}
+	    }
+	}
+	System.out.println(String.format(
+	    "%d points, worst %.3g of the largest value, %d calls threw alike, %d mismatches",
+	    points, worst, throwsSame, bad));
+	if(bad>0) System.exit(1);
+    }
 }
@@ -0,0 +1,82 @@
+package org.nyet.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * One bounded pool of daemon threads shared by everything that wants to
+ * do work in parallel.  invokeAll() has the calling thread run any task
+ * that has not been picked up yet, so it is safe to call from a task
+ * that is itself running on the pool.
+ */
+public class WorkerPool {
+    private static ExecutorService pool = null;
+    private static final int threads =
+	Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    public static int threads() { return threads; }
+
+    public static synchronized ExecutorService get() {
+	if (pool == null) {
+	    final AtomicInteger n = new AtomicInteger();
+	    pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+		    final Thread t = new Thread(r, "worker-" + n.incrementAndGet());
+		    t.setDaemon(true);
+		    return t;
+		}
+	    });
+	}
+	return pool;
+    }
+
+    /* runs all tasks, returns their (completed) futures in order */
+    public static <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) {
+	final List<Future<T>> out = new ArrayList<Future<T>>(tasks.size());
+	for (Callable<T> c : tasks) out.add(new FutureTask<T>(c));
+
+	// nothing to gain from the pool for a single task
+	if (out.size() > 1) {
+	    final ExecutorService e = get();
+	    for (int i=1; i<out.size(); i++) e.execute((FutureTask<T>)out.get(i));
+	}
+
+	// help out, then wait for whatever is still running elsewhere
+	for (Future<T> f : out) ((FutureTask<T>)f).run();
+	for (Future<T> f : out) {
+	    try {
+		f.get();
+	    } catch (InterruptedException ex) {
+		Thread.currentThread().interrupt();
+		break;
+	    } catch (ExecutionException ex) {
+		// caller gets it from the future
+	    }
+	}
+	return out;
+    }
+
+    /* runs all tasks, returns their results in order, throws the first failure */
+    public static <T> List<T> run(Collection<? extends Callable<T>> tasks)
+	    throws Exception {
+	final List<T> out = new ArrayList<T>(tasks.size());
+	for (Future<T> f : invokeAll(tasks)) {
+	    try {
+		out.add(f.get());
+	    } catch (ExecutionException e) {
+		if (e.getCause() instanceof Exception) throw (Exception)e.getCause();
+		throw e;
+	    }
+	}
+	return out;
+    }
+}
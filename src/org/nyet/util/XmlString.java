@@ -1,35 +1,54 @@
 package org.nyet.util;
 
+import java.io.IOException;
+
 import java.lang.Appendable;
 import java.lang.CharSequence;
 import java.lang.String;
-import java.lang.StringBuffer;
+import java.lang.StringBuilder;
 
 import java.util.Map;
 
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.text.translate.LookupTranslator;
 
+/*
+ * Builds indented XML in memory, or streams it to any Appendable.  When
+ * streaming, the CharSequence methods only see what is still buffered,
+ * which is nothing; use toString() on buffered instances only.
+ */
 public class XmlString implements CharSequence, Appendable {
     // Members
-    private StringBuffer buf=new StringBuffer();
+    private final StringBuilder buf;
+    private final Appendable out;
     private int ShiftWidth=2;
     private int Indent=0;
     private static final String EOL="\n";
-    private LookupTranslator lt;
 
-    // Constructors
-    public XmlString() {
+    // chars 128-255 as numeric entities, shared by every instance
+    private static final LookupTranslator lt;
+    static {
 	String[][] sb = new String[128][2];
 	for(char i=0; i<128; i++) {
 	    sb[i][0] = String.format("%c",i+128);
 	    sb[i][1] = "&#" + (i+128) + ";";
 	}
-	this.lt = new LookupTranslator(sb);
+	lt = new LookupTranslator(sb);
+    }
+
+    // Constructors
+    public XmlString() {
+	this.buf = new StringBuilder();
+	this.out = this.buf;
     }
     public XmlString(int i) { this(); this.indent(i); }
     public XmlString(String s) { this(); this.append(s); }
     public XmlString(int i, String s) { this(); this.indent(i); this.append(s); }
+    public XmlString(Appendable out) {
+	this.buf = new StringBuilder(0);
+	this.out = out;
+    }
+    public XmlString(Appendable out, int i) { this(out); this.indent(i); }
 
     // CharSequence methods
     public String toString() { return this.buf.toString(); }
@@ -40,56 +59,68 @@ public class XmlString implements CharSequence, Appendable {
     }
 
     // Methods
-    private String escape(String s)
+    private static String escape(String s)
     {
-	return this.lt.translate(StringEscapeUtils.escapeXml(s));
+	return lt.translate(StringEscapeUtils.escapeXml(s));
 	//return StringEscapeUtils.escapeHtml3(s);
 	//return StringEscapeUtils.escapeHtml4(s);
     }
-    /*
-    private Appendable tagIt(String tag, int value)
-    {
-	tag = escape(tag);
-	return this.append(String.format("%s>%d</%s", tag, value, tag));
+
+    private Appendable put(CharSequence cs) {
+	try {
+	    return this.out.append(cs);
+	} catch (IOException e) {
+	    throw new RuntimeException(e);
+	}
+    }
+
+    private Appendable put(char c) {
+	try {
+	    return this.out.append(c);
+	} catch (IOException e) {
+	    throw new RuntimeException(e);
+	}
     }
-    */
+
     private Appendable tagIt(String tag, Object value)
     {
 	tag = escape(tag);
 	String v = escape(value.toString());
-	return this.append(String.format("%s>%s</%s", tag, v, tag));
+	this.doIndent();
+	put('<'); put(tag); put('>'); put(v);
+	put("</"); put(tag); put('>');
+	return put(EOL);
     }
 
-    public Appendable append(char c) { return this.buf.append(c); }
+    public Appendable append(char c) { return put(c); }
     public Appendable append(CharSequence cs, int start, int end) { return this.append(cs.subSequence(start,end)); }
     public Appendable append(CharSequence cs) { return this.append(cs.toString()); }
     public Appendable append(String s) {
 	this.doIndent();
-	return this.buf.append("<"+s+">" + EOL);
+	put('<'); put(s); put('>');
+	return put(EOL);
     }
 
     public Appendable append(String tag, Object value) {
-	if (tag.length()<=0) return this.buf;
+	if (tag.length()<=0) return this.out;
 	if (value==null) return this.append(escape(tag));
-	if (value.toString().length()<=0) return this.buf;
+	if (value.toString().length()<=0) return this.out;
 	return this.tagIt(tag, value);
     }
 
     public Appendable append(String tag, Map<String, Object> attrs) {
 	this.doIndent();
-	this.buf.append(String.format("<%s", escape(tag)));
+	put('<'); put(escape(tag));
 	for (Map.Entry<String, Object> e: attrs.entrySet()) {
-	    String k = escape(e.getKey());
-	    String v = escape(e.getValue().toString());
-	    this.buf.append(String.format(" %s=\"%s\"", k, v));
+	    put(' '); put(escape(e.getKey())); put("=\"");
+	    put(escape(e.getValue().toString())); put('"');
 	}
-	return this.buf.append(" />" + EOL);
+	return put(" />" + EOL);
     }
 
     private Appendable doIndent() {
-	if (this.Indent>0)
-	    this.buf.append(String.format("%" + (this.ShiftWidth*Indent) + "s", " "));
-	return this.buf;
+	for (int i=this.ShiftWidth*this.Indent; i>0; i--) put(' ');
+	return this.out;
     }
 
     public int shiftWidth() { return this.ShiftWidth; }